@@ -2,6 +2,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Locale;
 
 /**
  * Parses the command-line arguments to build and use an in-memory search engine
@@ -24,9 +25,8 @@ public class Driver {
 		ResultFinderInterface resultFinder = null;
 		WorkQueue workers = null;
 
+		ThreadSafeIndex threadIndex = null;
 		if (map.hasFlag("-threads")) {
-			ThreadSafeIndex threadIndex = new ThreadSafeIndex();
-			index = threadIndex;
 			int threads = 5;
 			if (map.hasValue("-threads")) {
 				threads = map.getInteger("-threads", 5);
@@ -34,21 +34,79 @@ public class Driver {
 					threads = 5;
 				}
 			}	
-			workers = new WorkQueue(threads);
+			WorkQueue.Mode mode = WorkQueue.Mode.QUEUE;
+			if (map.hasValue("-executor")) {
+				try {
+					mode = WorkQueue.Mode.valueOf(map.getString("-executor").toUpperCase(Locale.ROOT));
+				} catch (IllegalArgumentException iae) {
+					System.err.println("Unknown executor " + map.getString("-executor") + ", using the default work queue");
+				}
+			}
+			int capacity = 0;
+			if (map.hasFlag("-capacity")) {
+				capacity = 16 * threads;
+				if (map.hasValue("-capacity")) {
+					capacity = map.getInteger("-capacity", capacity);
+				}
+			}
+			workers = new WorkQueue(threads, mode, capacity);
+			if (map.hasFlag("-striped")) {
+				int stripes = StripedIndex.DEFAULT;
+				if (map.hasValue("-striped")) {
+					stripes = map.getInteger("-striped", StripedIndex.DEFAULT);
+				}
+				threadIndex = new StripedIndex(stripes);
+			} else if (map.hasFlag("-segmented")) {
+				threadIndex = new SegmentedIndex(workers);
+			} else {
+				threadIndex = new ThreadSafeIndex();
+			}
+			index = threadIndex;
 			builder = new ThreadSafeIndexBuilder(threadIndex, workers);
-			resultFinder = new ThreadSafeResultFinder(threadIndex, workers);
 			
 		} else {
 			index = new InvertedIndex();
 			builder = new InvertedIndexBuilder(index);
-			resultFinder = new ResultFinder(index);
+		}
+
+		if (map.hasFlag("-aggregate")) {
+			int length = PrefixAggregates.LENGTH;
+			if (map.hasValue("-aggregate")) {
+				length = map.getInteger("-aggregate", PrefixAggregates.LENGTH);
+			}
+			int fanOut = PrefixAggregates.FAN_OUT;
+			if (map.hasValue("-fanout")) {
+				fanOut = map.getInteger("-fanout", PrefixAggregates.FAN_OUT);
+			}
+			index.aggregatePrefixes(Math.max(1, length), Math.max(2, fanOut));
+		}
+
+		if (map.hasFlag("-load") && map.hasValue("-load")) {
+			Path path = map.getPath("-load");
+			try {
+				index.readSnapshot(path);
+			} catch (IOException ioe) {
+				System.err.println("Issue reading the index snapshot: " + path);
+			}
+		} else if (map.hasFlag("-load") && !map.hasValue("-load")) {
+			System.err.println("No snapshot provided after the -load flag");
 		}
 
 		if (map.hasFlag("-path") && map.hasValue("-path")) {
 			Path inFile = map.getPath("-path");
 			if (Files.exists(inFile)) {
 				try {
-					builder.build(inFile);
+					if (map.hasFlag("-incremental")) {
+						Path manifestFile = map.getPath("-incremental", Paths.get("manifest.bin"));
+						FileManifest manifest = new FileManifest();
+						if (!index.empty() && Files.exists(manifestFile)) {
+							manifest.read(manifestFile);
+						}
+						builder.update(inFile, manifest);
+						manifest.write(manifestFile);
+					} else {
+						builder.build(inFile);
+					}
 				} catch (IOException ioe) {
 					System.err.println("Issue reading a file");
 				}
@@ -59,6 +117,15 @@ public class Driver {
 			System.err.println("No path provided after the -path flag");
 		}
 
+		if (map.hasFlag("-save")) {
+			Path path = map.getPath("-save", Paths.get("index.bin"));
+			try {
+				index.writeSnapshot(path);
+			} catch (IOException ioe) {
+				System.err.println("Issue writing the index snapshot: " + path);
+			}
+		}
+
 		if (map.hasFlag("-index")) {
 			Path path = map.getPath("-index", Paths.get("index.json"));
 			try {
@@ -77,6 +144,52 @@ public class Driver {
 			}
 		}
 
+		FrozenIndex frozen = null;
+		if (map.hasFlag("-frozen")) {
+			try {
+				if (map.hasFlag("-save")) {
+					frozen = new FrozenIndex(map.getPath("-save", Paths.get("index.bin")));
+				} else if (map.hasValue("-load") && !map.hasFlag("-path")) {
+					frozen = new FrozenIndex(map.getPath("-load"));
+				} else {
+					Path snapshot = Files.createTempFile("index", ".bin");
+					snapshot.toFile().deleteOnExit();
+					frozen = FrozenIndex.freeze(index, snapshot);
+				}
+			} catch (IOException ioe) {
+				System.err.println("Issue freezing the index, searching it in memory instead");
+			}
+		}
+
+		QueryCache cache = null;
+		if (map.hasFlag("-cache")) {
+			int megabytes = QueryCache.DEFAULT;
+			if (map.hasValue("-cache")) {
+				megabytes = map.getInteger("-cache", QueryCache.DEFAULT);
+			}
+			cache = new QueryCache(megabytes * 1024L * 1024L);
+		}
+
+		int limit = 0;
+		if (map.hasFlag("-limit")) {
+			limit = 10;
+			if (map.hasValue("-limit")) {
+				limit = map.getInteger("-limit", limit);
+			}
+			if (limit <= 0) {
+				System.err.println("Result limit must be positive, keeping every result instead");
+				limit = 0;
+			}
+		}
+
+		if (frozen != null) {
+			resultFinder = workers == null ? new ResultFinder(frozen, cache, limit)
+					: new ThreadSafeResultFinder(frozen, workers, cache, limit);
+		} else {
+			resultFinder = workers == null ? new ResultFinder(index, cache, limit)
+					: new ThreadSafeResultFinder(threadIndex, workers, cache, limit);
+		}
+
 		if (map.hasFlag("-query") && map.hasValue("-query")) {
 			try {
 				resultFinder.parseQueries(map.getPath("-query"), map.hasFlag("-exact"));
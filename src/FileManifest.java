@@ -0,0 +1,214 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Remembers the size, modification time and content hash of every file added to
+ * an index, so that a later run can tell which files are new, modified or
+ * deleted.
+ *
+ * @author Ryan Dielhenn
+ */
+public class FileManifest {
+
+	/** Marks the start of a manifest file. */
+	private static final int MAGIC = 0x46494D46;
+
+	/** The hash used to detect changed content. */
+	private static final String DIGEST = "SHA-256";
+
+	/**
+	 * Stores a mapping of locations to what they looked like when last indexed.
+	 */
+	private final TreeMap<String, Stamp> stamps;
+
+	/**
+	 * Initializes an empty manifest.
+	 */
+	public FileManifest() {
+		this.stamps = new TreeMap<String, Stamp>();
+	}
+
+	/**
+	 * Records the current state of a file, and returns whether it changed since
+	 * it was last recorded. The content hash is only computed when the file is
+	 * new or its size or modification time differ.
+	 *
+	 * @param file the file to check
+	 * @return true if the file is new or its content changed
+	 * @throws IOException if the file can not be read
+	 */
+	public boolean update(Path file) throws IOException {
+		String location = file.toString();
+		BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+		long size = attributes.size();
+		long modified = attributes.lastModifiedTime().toMillis();
+
+		Stamp old = stamps.get(location);
+		if (old != null && old.size == size && old.modified == modified) {
+			return false;
+		}
+
+		byte[] hash = hash(file);
+		stamps.put(location, new Stamp(size, modified, hash));
+		return old == null || !Arrays.equals(old.hash, hash);
+	}
+
+	/**
+	 * Tests whether the manifest has a record of the location.
+	 *
+	 * @param location the location to look for
+	 * @return true if the location was recorded
+	 */
+	public boolean contains(String location) {
+		return stamps.containsKey(location);
+	}
+
+	/**
+	 * Forgets a location.
+	 *
+	 * @param location the location to remove
+	 */
+	public void remove(String location) {
+		stamps.remove(location);
+	}
+
+	/**
+	 * Returns the recorded locations.
+	 *
+	 * @return an unmodifiable view of the locations
+	 */
+	public Set<String> locations() {
+		return Collections.unmodifiableSet(stamps.keySet());
+	}
+
+	/**
+	 * Returns the number of recorded locations.
+	 *
+	 * @return number of locations
+	 */
+	public int size() {
+		return stamps.size();
+	}
+
+	/**
+	 * Replaces the contents of this manifest with a manifest file.
+	 *
+	 * @param inputFile the manifest to read
+	 * @throws IOException if the file can not be read or is not a manifest
+	 */
+	public void read(Path inputFile) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(inputFile)))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a manifest: " + inputFile);
+			}
+			stamps.clear();
+			for (int i = in.readInt(); i > 0; i--) {
+				String location = in.readUTF();
+				long size = in.readLong();
+				long modified = in.readLong();
+				byte[] hash = new byte[in.readUnsignedByte()];
+				in.readFully(hash);
+				stamps.put(location, new Stamp(size, modified, hash));
+			}
+		}
+	}
+
+	/**
+	 * Writes this manifest to a file, replacing it only once it is complete.
+	 *
+	 * @param outputFile the file to write
+	 * @throws IOException
+	 */
+	public void write(Path outputFile) throws IOException {
+		Path temp = IndexFile.temporary(outputFile);
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(temp, StandardOpenOption.CREATE_NEW)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(stamps.size());
+			for (Entry<String, Stamp> entry : stamps.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeLong(entry.getValue().size);
+				out.writeLong(entry.getValue().modified);
+				out.writeByte(entry.getValue().hash.length);
+				out.write(entry.getValue().hash);
+			}
+		} catch (IOException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+		IndexFile.replace(temp, outputFile);
+	}
+
+	/**
+	 * Computes the content hash of a file.
+	 *
+	 * @param file the file to hash
+	 * @return the hash of the file
+	 * @throws IOException
+	 */
+	private static byte[] hash(Path file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(DIGEST);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(DIGEST + " is required by every Java platform", e);
+		}
+
+		byte[] buffer = new byte[64 * 1024];
+		try (InputStream in = Files.newInputStream(file)) {
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+			}
+		}
+		return digest.digest();
+	}
+
+	@Override
+	public String toString() {
+		return stamps.keySet().toString();
+	}
+
+	/**
+	 * What a file looked like when it was last indexed.
+	 */
+	private static class Stamp {
+
+		/** The size of the file in bytes. */
+		private final long size;
+
+		/** The modification time of the file in milliseconds. */
+		private final long modified;
+
+		/** The content hash of the file. */
+		private final byte[] hash;
+
+		/**
+		 * Constructor
+		 *
+		 * @param size     the size of the file in bytes
+		 * @param modified the modification time of the file in milliseconds
+		 * @param hash     the content hash of the file
+		 */
+		public Stamp(long size, long modified, byte[] hash) {
+			this.size = size;
+			this.modified = modified;
+			this.hash = hash;
+		}
+	}
+}
@@ -0,0 +1,203 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A read-only index that searches a memory-mapped snapshot directly. Postings
+ * stay in the mapped file and are scanned in place, so they are never copied
+ * onto the heap or traced by the garbage collector. Only the word and location
+ * tables are kept in memory.
+ *
+ * Instances never change after they are opened and are safe to share between
+ * threads.
+ *
+ * @see IndexFile
+ * @author Ryan Dielhenn
+ */
+public class FrozenIndex implements SearchableIndex {
+
+	/**
+	 * The snapshot being searched.
+	 */
+	private final IndexFile file;
+
+	/**
+	 * Numbers the frozen indexes opened so far.
+	 */
+	private static final AtomicLong OPENED = new AtomicLong();
+
+	/**
+	 * The generation of this index, which differs for every snapshot opened.
+	 */
+	private final long generation;
+
+	/**
+	 * Opens a snapshot written by {@link InvertedIndex#writeSnapshot(Path)}.
+	 *
+	 * @param snapshot - The snapshot to search
+	 * @throws IOException
+	 */
+	public FrozenIndex(Path snapshot) throws IOException {
+		this.file = new IndexFile(snapshot);
+		this.generation = OPENED.incrementAndGet();
+	}
+
+	/**
+	 * Writes a snapshot of a built index and opens it as a frozen index.
+	 *
+	 * @param index    - The index to freeze
+	 * @param snapshot - Where to write the snapshot
+	 * @return a frozen copy of the index
+	 * @throws IOException
+	 */
+	public static FrozenIndex freeze(InvertedIndex index, Path snapshot) throws IOException {
+		index.writeSnapshot(snapshot);
+		return new FrozenIndex(snapshot);
+	}
+
+	/**
+	 * Returns the number of words stored in the index.
+	 *
+	 * @return number of words
+	 */
+	public int numWords() {
+		return file.numTerms();
+	}
+
+	/**
+	 * Returns a generation that never changes, since a frozen index never changes,
+	 * but that differs for every snapshot opened, so results found in one snapshot
+	 * are never taken for those of another.
+	 */
+	@Override
+	public long generation() {
+		return generation;
+	}
+
+	@Override
+	public int numFiles(String word) {
+		int term = file.termId(word);
+		return term < 0 ? 0 : PostingList.readVarint(file.block(term));
+	}
+
+	@Override
+	public int numPositions(String word, String location) {
+		int term = file.termId(word);
+		int id = file.locationId(location);
+		if (term < 0 || id < 0) {
+			return 0;
+		}
+
+		ByteBuffer block = file.block(term);
+		int current = 0;
+		for (int i = PostingList.readVarint(block); i > 0; i--) {
+			current += PostingList.readVarint(block);
+			int size = PostingList.readVarint(block);
+			if (current >= id) {
+				return current == id ? size : 0;
+			}
+			skip(block);
+		}
+		return 0;
+	}
+
+	@Override
+	public boolean contains(String word) {
+		return file.termId(word) >= 0;
+	}
+
+	@Override
+	public boolean contains(String word, String file) {
+		return numPositions(word, file) > 0;
+	}
+
+	@Override
+	public ArrayList<SearchResult> search(Collection<String> queries, boolean exact) {
+		return exact ? exactSearch(queries) : partialSearch(queries);
+	}
+
+	@Override
+	public ArrayList<SearchResult> exactSearch(Collection<String> queries) {
+		ArrayList<SearchResult> results = new ArrayList<SearchResult>();
+		HashMap<Integer, SearchResult> resultMap = new HashMap<Integer, SearchResult>();
+
+		for (String word : queries) {
+			int term = file.termId(word);
+			if (term >= 0) {
+				searchHelper(resultMap, results, term);
+			}
+		}
+
+		Collections.sort(results);
+		return results;
+	}
+
+	@Override
+	public ArrayList<SearchResult> partialSearch(Collection<String> queries) {
+		ArrayList<SearchResult> results = new ArrayList<SearchResult>();
+		HashMap<Integer, SearchResult> resultMap = new HashMap<Integer, SearchResult>();
+
+		for (String query : queries) {
+			/* Words sharing a prefix are stored next to each other */
+			int start = file.ceilingTerm(query);
+			int end = file.prefixEnd(query, start);
+			for (int term = start; term < end; term++) {
+				searchHelper(resultMap, results, term);
+			}
+		}
+
+		Collections.sort(results);
+		return results;
+	}
+
+	/**
+	 * Scans the posting block of one word, adding or updating a search result for
+	 * every location it was found in.
+	 *
+	 * @param resultMap - a mapping of location IDs to search results
+	 * @param results   - ArrayList of search results
+	 * @param term      - the ID of the word we are currently searching for
+	 */
+	private void searchHelper(HashMap<Integer, SearchResult> resultMap, ArrayList<SearchResult> results, int term) {
+		ByteBuffer block = file.block(term);
+		int location = 0;
+		for (int i = PostingList.readVarint(block); i > 0; i--) {
+			location += PostingList.readVarint(block);
+			int count = PostingList.readVarint(block);
+			skip(block);
+
+			SearchResult result = resultMap.get(location);
+			if (result == null) {
+				result = new SearchResult(file.location(location), count, file.count(location));
+				results.add(result);
+				resultMap.put(location, result);
+			} else {
+				result.updateCount(count);
+			}
+		}
+	}
+
+	/**
+	 * Skips over the encoded positions of one location, leaving the block at the
+	 * next location.
+	 *
+	 * @param block - the block, positioned at the length of the encoded positions
+	 */
+	private static void skip(ByteBuffer block) {
+		int length = PostingList.readVarint(block);
+		block.position(block.position() + length);
+	}
+
+	/**
+	 * Returns a string representation of this index.
+	 */
+	@Override
+	public String toString() {
+		return "FrozenIndex[" + file.numTerms() + " words, " + file.numLocations() + " locations]";
+	}
+}
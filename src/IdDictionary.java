@@ -0,0 +1,112 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Assigns dense integer IDs to strings, so other data structures can store and
+ * compare a small int instead of the string itself.
+ *
+ * @author Ryan Dielhenn
+ */
+public class IdDictionary {
+
+	/**
+	 * Stores a mapping of strings to their IDs.
+	 */
+	private final HashMap<String, Integer> ids;
+
+	/**
+	 * Stores the strings, where the index of each string is its ID.
+	 */
+	private final ArrayList<String> values;
+
+	/**
+	 * Initializes an empty dictionary.
+	 */
+	public IdDictionary() {
+		this.ids = new HashMap<String, Integer>();
+		this.values = new ArrayList<String>();
+	}
+
+	/**
+	 * Initializes a copy of another dictionary, which can be changed without
+	 * affecting the original.
+	 *
+	 * @param other the dictionary to copy
+	 */
+	public IdDictionary(IdDictionary other) {
+		this.ids = new HashMap<String, Integer>(other.ids);
+		this.values = new ArrayList<String>(other.values);
+	}
+
+	/**
+	 * Returns the ID of the value, assigning the next unused ID if the value has
+	 * not been seen before.
+	 *
+	 * @param value the value to look up or add
+	 * @return the ID of the value
+	 */
+	public int add(String value) {
+		Integer id = ids.get(value);
+		if (id == null) {
+			id = values.size();
+			ids.put(value, id);
+			values.add(value);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the ID of the value.
+	 *
+	 * @param value the value to look up
+	 * @return the ID of the value, or -1 if the value is not in this dictionary
+	 */
+	public int get(String value) {
+		Integer id = ids.get(value);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Removes a value from this dictionary. Its ID is not reused; if the value is
+	 * added again it is assigned a new ID.
+	 *
+	 * @param value the value to remove
+	 * @return the ID the value had, or -1 if the value is not in this dictionary
+	 */
+	public int remove(String value) {
+		Integer id = ids.remove(value);
+		if (id == null) {
+			return -1;
+		}
+		values.set(id, null);
+		return id;
+	}
+
+	/**
+	 * Returns the value assigned to the ID.
+	 *
+	 * @param id the ID to look up
+	 * @return the value with that ID, or null if the value was removed
+	 */
+	public String get(int id) {
+		return values.get(id);
+	}
+
+	/**
+	 * Returns the number of IDs assigned by this dictionary, including the IDs of
+	 * removed values. IDs are always in the range {@code [0, size())}.
+	 *
+	 * @return number of IDs
+	 */
+	public int size() {
+		return values.size();
+	}
+
+	/**
+	 * Returns a string representation of this dictionary.
+	 */
+	@Override
+	public String toString() {
+		return this.values.toString();
+	}
+}
@@ -0,0 +1,400 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Reads and writes the binary snapshot format of an {@link InvertedIndex}.
+ *
+ * A snapshot starts with a header, followed by one posting block per word, a
+ * location table, a sorted word table and a footer:
+ *
+ * <pre>
+ * header:    int magic, int version
+ * postings:  one block per word, in word order
+ *            varint number of locations, then for each location:
+ *            varint location id delta, {@link PostingList#write} positions
+ * locations: int count, then (UTF location, int word count) in location order
+ * words:     int count, then (UTF word, long block offset) in word order
+ * footer:    long offset of the location table, int magic
+ * </pre>
+ *
+ * Words and locations are numbered by their sorted order. Opening a snapshot
+ * only reads the tables; the posting blocks are memory mapped and decoded the
+ * first time a word is used.
+ *
+ * @author Ryan Dielhenn
+ */
+public class IndexFile {
+
+	/** Marks the start and end of a snapshot file. */
+	private static final int MAGIC = 0x46495245;
+
+	/** The version of the format written by this class. */
+	private static final int VERSION = 1;
+
+	/** The locations in sorted order. */
+	private final String[] locations;
+
+	/** The number of words in each location. */
+	private final int[] counts;
+
+	/** The words in sorted order. */
+	private final String[] terms;
+
+	/** The offset of each word's posting block within {@link #postings}. */
+	private final int[] offsets;
+
+	/** The mapped posting blocks. */
+	private final ByteBuffer postings;
+
+	/** Posting blocks that have already been decoded, indexed by word. */
+	private final AtomicReferenceArray<TreeMap<Integer, PostingList>> cache;
+
+	/**
+	 * Opens a snapshot file, reading its tables and mapping its posting blocks.
+	 *
+	 * @param path the snapshot to open
+	 * @throws IOException if the file can not be read or is not a snapshot
+	 */
+	public IndexFile(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < 20) {
+				throw new IOException("Not an index snapshot: " + path);
+			}
+
+			ByteBuffer footer = ByteBuffer.allocate(12);
+			channel.read(footer, size - 12);
+			footer.flip();
+			long tables = footer.getLong();
+			if (footer.getInt() != MAGIC || tables < 8 || tables > size - 12) {
+				throw new IOException("Not an index snapshot: " + path);
+			}
+			if (tables - 8 > Integer.MAX_VALUE) {
+				throw new IOException("Index snapshot is too large to map: " + path);
+			}
+
+			ByteBuffer header = ByteBuffer.allocate(8);
+			channel.read(header, 0);
+			header.flip();
+			if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+				throw new IOException("Unsupported index snapshot: " + path);
+			}
+
+			channel.position(tables);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+
+			locations = new String[in.readInt()];
+			counts = new int[locations.length];
+			for (int i = 0; i < locations.length; i++) {
+				locations[i] = in.readUTF();
+				counts[i] = in.readInt();
+			}
+
+			terms = new String[in.readInt()];
+			offsets = new int[terms.length];
+			for (int i = 0; i < terms.length; i++) {
+				terms[i] = in.readUTF();
+				offsets[i] = (int) (in.readLong() - 8);
+			}
+
+			postings = channel.map(FileChannel.MapMode.READ_ONLY, 8, tables - 8);
+			cache = new AtomicReferenceArray<TreeMap<Integer, PostingList>>(terms.length);
+		}
+	}
+
+	/**
+	 * Returns the number of words in this snapshot.
+	 *
+	 * @return number of words
+	 */
+	public int numTerms() {
+		return terms.length;
+	}
+
+	/**
+	 * Returns a word by its ID. Words are numbered in sorted order.
+	 *
+	 * @param id the ID of the word
+	 * @return the word
+	 */
+	public String term(int id) {
+		return terms[id];
+	}
+
+	/**
+	 * Returns the ID of a word.
+	 *
+	 * @param word the word to look up
+	 * @return the ID of the word, or -1 if the word is not in this snapshot
+	 */
+	public int termId(String word) {
+		int id = Arrays.binarySearch(terms, word);
+		return id < 0 ? -1 : id;
+	}
+
+	/**
+	 * Returns the ID of the first word that is equal to or sorts after the given
+	 * word. Words that start with a prefix therefore begin at
+	 * {@code ceilingTerm(prefix)}.
+	 *
+	 * @param word the word to look up
+	 * @return the ID of the first word not less than the given word, or
+	 *         {@link #numTerms()} if there is none
+	 */
+	public int ceilingTerm(String word) {
+		int id = Arrays.binarySearch(terms, word);
+		return id < 0 ? -(id + 1) : id;
+	}
+
+	/**
+	 * Returns the ID just after the last word that starts with a prefix, so the
+	 * words that start with it are numbered from {@code ceilingTerm(prefix)} up to
+	 * but not including this ID.
+	 *
+	 * @param prefix the prefix to look for
+	 * @param start  the ID of the first word not less than the prefix
+	 * @return the end of the range of words that start with the prefix
+	 */
+	public int prefixEnd(String prefix, int start) {
+		return TermDictionary.end(terms, start, terms.length, prefix);
+	}
+
+	/**
+	 * Returns the number of locations in this snapshot.
+	 *
+	 * @return number of locations
+	 */
+	public int numLocations() {
+		return locations.length;
+	}
+
+	/**
+	 * Returns a location by its ID. Locations are numbered in sorted order.
+	 *
+	 * @param id the ID of the location
+	 * @return the location
+	 */
+	public String location(int id) {
+		return locations[id];
+	}
+
+	/**
+	 * Returns the ID of a location.
+	 *
+	 * @param location the location to look up
+	 * @return the ID of the location, or -1 if the location is not in this
+	 *         snapshot
+	 */
+	public int locationId(String location) {
+		int id = Arrays.binarySearch(locations, location);
+		return id < 0 ? -1 : id;
+	}
+
+	/**
+	 * Returns the number of words stored for a location.
+	 *
+	 * @param id the ID of the location
+	 * @return number of words in the location
+	 */
+	public int count(int id) {
+		return counts[id];
+	}
+
+	/**
+	 * Returns the posting block of a word, positioned at its first byte. The
+	 * returned buffer is independent of any other caller.
+	 *
+	 * @param term the ID of the word
+	 * @return the word's posting block
+	 */
+	public ByteBuffer block(int term) {
+		ByteBuffer block = postings.duplicate();
+		block.position(offsets[term]);
+		return block;
+	}
+
+	/**
+	 * Returns the postings of a word keyed by location ID, decoding its block the
+	 * first time it is requested. Reads of decoded words take no lock. If several
+	 * threads decode the same word at once, the first to finish publishes its
+	 * postings and the others return those instead of their own.
+	 *
+	 * @param term the ID of the word
+	 * @return a mapping of location IDs to positions
+	 */
+	public TreeMap<Integer, PostingList> postings(int term) {
+		TreeMap<Integer, PostingList> decoded = cache.get(term);
+		if (decoded != null) {
+			return decoded;
+		}
+
+		ByteBuffer block = block(term);
+		decoded = new TreeMap<Integer, PostingList>();
+		int location = 0;
+		for (int i = PostingList.readVarint(block); i > 0; i--) {
+			location += PostingList.readVarint(block);
+			decoded.put(location, new PostingList(block));
+		}
+		return cache.compareAndSet(term, null, decoded) ? decoded : cache.get(term);
+	}
+
+	/**
+	 * Writes a snapshot file. The words and locations must be given in sorted
+	 * order, and the postings of each word must be keyed by the position of the
+	 * location in that order.
+	 *
+	 * @param path      the file to write
+	 * @param terms     the words in sorted order
+	 * @param postings  the postings of each word, keyed by location ID
+	 * @param locations the locations in sorted order
+	 * @param counts    the number of words in each location
+	 * @throws IOException
+	 */
+	public static void write(Path path, String[] terms, PostingsSource postings, String[] locations, int[] counts)
+			throws IOException {
+		/* Write next to the target and move it into place, the target may be mapped */
+		Path temp = temporary(path);
+		try (CountingOutputStream counter = new CountingOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(temp, StandardOpenOption.CREATE_NEW)));
+				DataOutputStream out = new DataOutputStream(counter)) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+
+			long[] offsets = new long[terms.length];
+			for (int term = 0; term < terms.length; term++) {
+				offsets[term] = counter.count;
+				TreeMap<Integer, PostingList> block = postings.postings(term);
+				PostingList.writeVarint(out, block.size());
+				int previous = 0;
+				for (Entry<Integer, PostingList> entry : block.entrySet()) {
+					PostingList.writeVarint(out, entry.getKey() - previous);
+					entry.getValue().write(out);
+					previous = entry.getKey();
+				}
+			}
+
+			long tables = counter.count;
+			out.writeInt(locations.length);
+			for (int i = 0; i < locations.length; i++) {
+				out.writeUTF(locations[i]);
+				out.writeInt(counts[i]);
+			}
+
+			out.writeInt(terms.length);
+			for (int i = 0; i < terms.length; i++) {
+				out.writeUTF(terms[i]);
+				out.writeLong(offsets[i]);
+			}
+
+			out.writeLong(tables);
+			out.writeInt(MAGIC);
+		} catch (IOException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+		replace(temp, path);
+	}
+
+	/**
+	 * Returns an unused name for a file next to a target, to write its replacement
+	 * in. The file should be created with {@link StandardOpenOption#CREATE_NEW},
+	 * which gives it the default permissions, unlike
+	 * {@link Files#createTempFile(Path, String, String, java.nio.file.attribute.FileAttribute...)}
+	 * whose files only their owner can read.
+	 *
+	 * @param target the file that will be replaced
+	 * @return the path of the replacement
+	 */
+	public static Path temporary(Path target) {
+		Path absolute = target.toAbsolutePath();
+		long suffix = ThreadLocalRandom.current().nextLong() >>> 1;
+		return absolute.resolveSibling("." + absolute.getFileName() + "." + suffix + ".tmp");
+	}
+
+	/**
+	 * Moves a completed replacement over its target. If the target exists, the
+	 * replacement is first given the same permissions.
+	 *
+	 * @param temp   the replacement, from {@link #temporary(Path)}
+	 * @param target the file to replace
+	 * @throws IOException
+	 */
+	public static void replace(Path temp, Path target) throws IOException {
+		try {
+			if (Files.exists(target)) {
+				try {
+					Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(target));
+				} catch (UnsupportedOperationException e) {
+					/* The file system has no POSIX permissions to copy */
+				}
+			}
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+	}
+
+	/**
+	 * Supplies the postings of one word at a time while a snapshot is written.
+	 */
+	public interface PostingsSource {
+
+		/**
+		 * Returns the postings of a word keyed by sorted location ID.
+		 *
+		 * @param term the sorted ID of the word
+		 * @return a mapping of location IDs to positions
+		 */
+		public TreeMap<Integer, PostingList> postings(int term);
+	}
+
+	/**
+	 * An output stream that keeps track of how many bytes were written, used to
+	 * record the offset of each posting block.
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+
+		/** The number of bytes written so far. */
+		private long count;
+
+		/**
+		 * Wraps an output stream.
+		 *
+		 * @param out the stream to write to
+		 */
+		public CountingOutputStream(OutputStream out) {
+			super(out);
+			this.count = 0;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+}
@@ -1,38 +1,202 @@
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.function.ToIntFunction;
 
 /**
- * Data structure to store strings and their positions.
+ * Data structure to store strings and their positions. Words and locations are
+ * assigned dense integer IDs, and all postings are stored and searched by ID.
+ * Strings are only looked up again when the index or its results are written.
  *
  * @author Ryan Dielhenn
  */
-public class InvertedIndex {
+public class InvertedIndex implements SearchableIndex {
 
 	/**
-	 * Stores a mapping of words to the positions the words were found.
+	 * Assigns an ID to every word stored in the index.
 	 */
-	private final TreeMap<String, TreeMap<String, TreeSet<Integer>>> index;
+	private IdDictionary terms;
 
 	/**
-	 * Stores a mapping of file locations to the number of unique positions added to
-	 * index.
+	 * Stores the words in sorted order with their IDs, used for prefix search and
+	 * for writing the index in order.
 	 */
-	private final TreeMap<String, Integer> locations;
+	private TermDictionary sortedTerms;
+
+	/**
+	 * Assigns an ID to every location stored in the index.
+	 */
+	private final IdDictionary locationIds;
+
+	/**
+	 * Stores a mapping of word IDs to location IDs to the positions the words were
+	 * found. The list is indexed by word ID.
+	 */
+	private ArrayList<TreeMap<Integer, PostingList>> index;
+
+	/**
+	 * Stores the number of unique positions added to index for each location,
+	 * indexed by location ID.
+	 */
+	private int[] locations;
+
+	/**
+	 * Marks the IDs of removed locations. Their postings are skipped by every read
+	 * and are only deleted from the postings by {@link #compact()}.
+	 */
+	private final BitSet removed;
+
+	/**
+	 * The number of positions stored for locations that have not been removed.
+	 */
+	private long total;
+
+	/**
+	 * The number of positions stored for removed locations that have not been
+	 * compacted yet.
+	 */
+	private long garbage;
+
+	/**
+	 * The snapshot this index was loaded from, used to decode postings the first
+	 * time a word is used. Null if this index was not loaded from a snapshot.
+	 */
+	private IndexFile source;
+
+	/**
+	 * Counts the changes made to this index.
+	 */
+	private long generation;
+
+	/**
+	 * The added up postings of short and broad prefixes, or null if partial
+	 * searches always read the postings of every matching word.
+	 */
+	private PrefixAggregates aggregates;
+
+	/**
+	 * Whether the words and postings are shared with a copy made by
+	 * {@link #withoutLocations(Collection)}, so they must be copied before they
+	 * are changed.
+	 */
+	private boolean shared;
 
 	/**
 	 * Initializes the index.
 	 */
 	public InvertedIndex() {
-		this.index = new TreeMap<String, TreeMap<String, TreeSet<Integer>>>();
-		this.locations = new TreeMap<String, Integer>();
+		this.terms = new IdDictionary();
+		this.sortedTerms = new TermDictionary();
+		this.locationIds = new IdDictionary();
+		this.index = new ArrayList<TreeMap<Integer, PostingList>>();
+		this.locations = new int[16];
+		this.removed = new BitSet();
+		this.total = 0;
+		this.garbage = 0;
+		this.source = null;
+		this.generation = 0;
+		this.aggregates = null;
+		this.shared = false;
+	}
+
+	/**
+	 * Initializes a copy of another index that shares its words and postings, but
+	 * has its own locations, so that locations can be removed from the copy
+	 * without changing the original.
+	 *
+	 * @param other the index to copy
+	 * @see #withoutLocations(Collection)
+	 */
+	private InvertedIndex(InvertedIndex other) {
+		this.terms = other.terms;
+		this.sortedTerms = other.sortedTerms;
+		this.locationIds = new IdDictionary(other.locationIds);
+		this.index = other.index;
+		this.locations = other.locations.clone();
+		this.removed = (BitSet) other.removed.clone();
+		this.total = other.total;
+		this.garbage = other.garbage;
+		this.source = other.source;
+		this.generation = other.generation;
+		this.aggregates = other.aggregates == null ? null : new PrefixAggregates(other.aggregates);
+		this.shared = true;
+		other.shared = true;
+	}
+
+	/**
+	 * Returns the postings of a word, decoding them from the snapshot this index
+	 * was loaded from if they have not been used yet.
+	 *
+	 * @param term the ID of the word
+	 * @return a mapping of location IDs to positions
+	 */
+	private TreeMap<Integer, PostingList> postings(int term) {
+		TreeMap<Integer, PostingList> postings = index.get(term);
+		return postings == null ? source.postings(term) : postings;
+	}
+
+	/**
+	 * Returns the number of locations a word was found in, not counting removed
+	 * locations.
+	 *
+	 * @param postings the postings of the word
+	 * @return number of locations that have not been removed
+	 */
+	private int liveFiles(TreeMap<Integer, PostingList> postings) {
+		if (removed.isEmpty()) {
+			return postings.size();
+		}
+		int live = 0;
+		for (int location : postings.keySet()) {
+			if (!removed.get(location)) {
+				live++;
+			}
+		}
+		return live;
+	}
+
+	/**
+	 * Returns the ID of a word, adding the word to the index if necessary.
+	 *
+	 * @param word the word to look up
+	 * @return the ID of the word
+	 */
+	private int termId(String word) {
+		int term = terms.add(word);
+		if (term == index.size()) {
+			index.add(new TreeMap<Integer, PostingList>());
+			sortedTerms.add(word, term);
+		} else if (postings(term).isEmpty()) {
+			/* The word was removed along with its last location */
+			sortedTerms.add(word, term);
+		}
+		return term;
+	}
+
+	/**
+	 * Returns the ID of a location, adding the location to the index if necessary.
+	 *
+	 * @param location the location to look up
+	 * @return the ID of the location
+	 */
+	private int locationId(String location) {
+		int id = locationIds.add(location);
+		if (id >= locations.length) {
+			locations = Arrays.copyOf(locations, Math.max(id + 1, locations.length * 2));
+		}
+		return id;
 	}
 
 	/**
@@ -44,10 +208,17 @@ public class InvertedIndex {
 	 * @return true if this index did not already contain this word and position
 	 */
 	public boolean add(String word, String location, int position) {
-		index.putIfAbsent(word, new TreeMap<String, TreeSet<Integer>>());
-		index.get(word).putIfAbsent(location, new TreeSet<Integer>());
-		if (index.get(word).get(location).add(position)) {
-			locations.put(location, locations.getOrDefault(location, 0) + 1);
+		TreeMap<Integer, PostingList> postings = postings(termId(word));
+		int id = locationId(location);
+		PostingList positions = postings.get(id);
+		if (positions == null) {
+			positions = new PostingList();
+			postings.put(id, positions);
+		}
+		if (positions.add(position)) {
+			locations[id]++;
+			total++;
+			generation++;
 			return true;
 		}
 		return false;
@@ -74,6 +245,147 @@ public class InvertedIndex {
 		return changed;
 	}
 
+	/**
+	 * Removes every word and position found in a location, for example because
+	 * the file was deleted. The location is only marked as removed, which takes
+	 * constant time; its postings are skipped by every read until
+	 * {@link #compact()} deletes them. If the location is added again later, it
+	 * is stored as a new location.
+	 *
+	 * @param location the location to remove
+	 * @return true if this index changed as a result of the call
+	 */
+	public boolean removeLocation(String location) {
+		return remove(location);
+	}
+
+	/**
+	 * Marks a location as removed. Used by every method that removes locations,
+	 * so that none of them depend on a method a subclass may override.
+	 *
+	 * @param location the location to remove
+	 * @return true if this index changed as a result of the call
+	 * @see #removeLocation(String)
+	 */
+	private boolean remove(String location) {
+		int id = locationIds.remove(location);
+		if (id < 0) {
+			return false;
+		}
+		removed.set(id);
+		total -= locations[id];
+		garbage += locations[id];
+		locations[id] = 0;
+		generation++;
+		return true;
+	}
+
+	/**
+	 * Returns a copy of this index with some locations removed, leaving this index
+	 * unchanged. The copy shares its words and postings with this index, so it
+	 * takes time proportional to the number of locations rather than the number of
+	 * words. Words must not be added to either index afterwards, but either may be
+	 * compacted, which first gives it its own copy of the words and postings.
+	 *
+	 * @param removed the locations to remove
+	 * @return a copy of this index without the locations
+	 */
+	protected InvertedIndex withoutLocations(Collection<String> removed) {
+		InvertedIndex copy = new InvertedIndex(this);
+		for (String location : removed) {
+			copy.remove(location);
+		}
+		return copy;
+	}
+
+	/**
+	 * Removes every word and position found in the given locations.
+	 *
+	 * @param removed the locations to remove
+	 * @return true if this index changed as a result of the call
+	 * @see #removeLocation(String)
+	 */
+	public boolean removeLocations(Collection<String> removed) {
+		boolean changed = false;
+		for (String location : removed) {
+			if (remove(location)) {
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Replaces everything stored for a location with the contents of another
+	 * index, for example after the file was modified. The replacement should only
+	 * contain that location.
+	 *
+	 * @param location    the location to replace
+	 * @param replacement an index of the new contents of the location
+	 * @see #removeLocation(String)
+	 * @see #addAll(InvertedIndex)
+	 */
+	public void replaceLocation(String location, InvertedIndex replacement) {
+		remove(location);
+		merge(replacement);
+	}
+
+	/**
+	 * Tests whether enough positions belong to removed locations that it is worth
+	 * calling {@link #compact()}.
+	 *
+	 * @return true if at least a quarter of the stored positions are garbage
+	 */
+	public boolean needsCompaction() {
+		return garbage > 0 && garbage >= (total + garbage) / 4;
+	}
+
+	/**
+	 * Deletes the postings of every removed location, along with any words that
+	 * are no longer found in any location.
+	 */
+	public void compact() {
+		if (removed.isEmpty()) {
+			return;
+		}
+		if (shared) {
+			unshare();
+		}
+
+		sortedTerms.removeIf(term -> {
+			TreeMap<Integer, PostingList> postings = postings(term);
+			postings.keySet().removeIf(removed::get);
+			return postings.isEmpty();
+		});
+
+		removed.clear();
+		garbage = 0;
+		generation++;
+	}
+
+	/**
+	 * Replaces the words and postings shared with another index by copies of
+	 * them, so they can be changed without affecting the other index. The
+	 * positions themselves are never changed in place, so they are not copied.
+	 */
+	private void unshare() {
+		ArrayList<TreeMap<Integer, PostingList>> copied = new ArrayList<TreeMap<Integer, PostingList>>(index.size());
+		for (int term = 0; term < index.size(); term++) {
+			copied.add(new TreeMap<Integer, PostingList>(postings(term)));
+		}
+
+		TermDictionary sorted = new TermDictionary();
+		for (int i = 0; i < sortedTerms.size(); i++) {
+			sorted.add(sortedTerms.word(i), sortedTerms.id(i));
+		}
+
+		terms = new IdDictionary(terms);
+		sortedTerms = sorted;
+		index = copied;
+		source = null;
+		shared = false;
+	}
+
 	/**
 	 * Writes the Inverted Index with JSONWriter
 	 * 
@@ -82,7 +394,47 @@ public class InvertedIndex {
 	 * @throws IOException
 	 */
 	public void writeIndex(Path outputFile) throws IOException {
-		PrettyJSONWriter.asDoubleNestedObject(this.index, outputFile);
+		try (BufferedWriter writer = Files.newBufferedWriter(outputFile, StandardCharsets.UTF_8)) {
+			writer.write("{");
+			writer.write(System.lineSeparator());
+
+			boolean first = true;
+			for (int i = 0; i < sortedTerms.size(); i++) {
+				TreeMap<String, PostingList> positions = positions(sortedTerms.id(i));
+				if (positions.isEmpty()) {
+					continue;
+				}
+				if (!first) {
+					writer.write(",");
+					writer.write(System.lineSeparator());
+				}
+				PrettyJSONWriter.quote(sortedTerms.word(i), writer, 1);
+				writer.write(": ");
+				PrettyJSONWriter.asNestedObject(positions, writer, 1);
+				first = false;
+			}
+			if (!first) {
+				writer.write(System.lineSeparator());
+			}
+			writer.write("}");
+		}
+	}
+
+	/**
+	 * Returns the postings of one word keyed by location string, so they can be
+	 * written in location order. Removed locations are left out.
+	 *
+	 * @param term the ID of the word
+	 * @return a mapping of locations to positions for that word
+	 */
+	private TreeMap<String, PostingList> positions(int term) {
+		TreeMap<String, PostingList> positions = new TreeMap<String, PostingList>();
+		for (Entry<Integer, PostingList> entry : postings(term).entrySet()) {
+			if (!removed.get(entry.getKey())) {
+				positions.put(locationIds.get(entry.getKey()), entry.getValue());
+			}
+		}
+		return positions;
 	}
 
 	/**
@@ -93,7 +445,105 @@ public class InvertedIndex {
 	 * @throws IOException
 	 */
 	public void writeLocations(Path outputFile) throws IOException {
-		PrettyJSONWriter.asObject(this.locations, outputFile);
+		PrettyJSONWriter.asObject(wordCounts(), outputFile);
+	}
+
+	/**
+	 * Returns the number of words stored for each location, leaving out removed
+	 * and empty locations.
+	 *
+	 * @return a sorted mapping of locations to their number of words
+	 */
+	public TreeMap<String, Integer> wordCounts() {
+		TreeMap<String, Integer> counts = new TreeMap<String, Integer>();
+		for (int id = 0; id < locationIds.size(); id++) {
+			if (locations[id] > 0) {
+				counts.put(locationIds.get(id), locations[id]);
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Writes the index as a binary snapshot that can be loaded again with
+	 * {@link #readSnapshot(Path)} without rebuilding the index.
+	 *
+	 * @param outputFile path to write output to
+	 * @throws IOException
+	 *
+	 * @see IndexFile
+	 */
+	public void writeSnapshot(Path outputFile) throws IOException {
+		/* Snapshots number words and locations in sorted order */
+		ArrayList<String> words = new ArrayList<String>();
+		int[] wordIds = new int[sortedTerms.size()];
+		for (int i = 0; i < wordIds.length; i++) {
+			if (liveFiles(postings(sortedTerms.id(i))) > 0) {
+				wordIds[words.size()] = sortedTerms.id(i);
+				words.add(sortedTerms.word(i));
+			}
+		}
+
+		TreeMap<String, Integer> sortedLocations = new TreeMap<String, Integer>();
+		for (int id = 0; id < locationIds.size(); id++) {
+			if (locations[id] > 0) {
+				sortedLocations.put(locationIds.get(id), id);
+			}
+		}
+		String[] paths = new String[sortedLocations.size()];
+		int[] counts = new int[paths.length];
+		int[] rank = new int[locationIds.size()];
+		int location = 0;
+		for (Entry<String, Integer> entry : sortedLocations.entrySet()) {
+			paths[location] = entry.getKey();
+			counts[location] = locations[entry.getValue()];
+			rank[entry.getValue()] = location++;
+		}
+
+		IndexFile.write(outputFile, words.toArray(new String[0]), sorted -> {
+			TreeMap<Integer, PostingList> postings = new TreeMap<Integer, PostingList>();
+			for (Entry<Integer, PostingList> entry : postings(wordIds[sorted]).entrySet()) {
+				if (!removed.get(entry.getKey())) {
+					postings.put(rank[entry.getKey()], entry.getValue());
+				}
+			}
+			return postings;
+		}, paths, counts);
+	}
+
+	/**
+	 * Loads a binary snapshot written by {@link #writeSnapshot(Path)} into this
+	 * index. If this index is empty, only the word and location tables are read,
+	 * and the postings of each word are read the first time the word is used.
+	 * Otherwise the snapshot is merged into this index.
+	 *
+	 * @param inputFile path of the snapshot to load
+	 * @throws IOException
+	 *
+	 * @see IndexFile
+	 */
+	public void readSnapshot(Path inputFile) throws IOException {
+		IndexFile file = new IndexFile(inputFile);
+		InvertedIndex loaded = this.terms.size() == 0 && this.locationIds.size() == 0 ? this : new InvertedIndex();
+
+		for (int id = 0; id < file.numLocations(); id++) {
+			int location = loaded.locationId(file.location(id));
+			loaded.locations[location] = file.count(id);
+			loaded.total += file.count(id);
+		}
+		for (int id = 0; id < file.numTerms(); id++) {
+			String word = file.term(id);
+			loaded.terms.add(word);
+			loaded.sortedTerms.add(word, id);
+			loaded.index.add(null);
+		}
+		loaded.source = file;
+
+		if (loaded != this) {
+			merge(loaded);
+		} else {
+			generation++;
+		}
 	}
 
 	/**
@@ -102,7 +552,61 @@ public class InvertedIndex {
 	 * @return number of words
 	 */
 	public int numWords() {
-		return index.size();
+		return countWords();
+	}
+
+	/**
+	 * Counts the words found in at least one location that has not been removed.
+	 *
+	 * @return number of words
+	 */
+	private int countWords() {
+		if (removed.isEmpty()) {
+			return sortedTerms.size();
+		}
+		int words = 0;
+		for (int i = 0; i < sortedTerms.size(); i++) {
+			if (liveFiles(postings(sortedTerms.id(i))) > 0) {
+				words++;
+			}
+		}
+		return words;
+	}
+
+	/**
+	 * Returns a number that changes whenever words or locations are added to or
+	 * removed from this index. Results found while the generation stays the same
+	 * remain valid.
+	 *
+	 * @return the generation of this index
+	 */
+	@Override
+	public long generation() {
+		return generation;
+	}
+
+	/**
+	 * Makes partial searches for short or broad prefixes read one list of counts
+	 * per location, added up from the postings of every matching word the first
+	 * time the prefix is searched, instead of reading all of those postings on
+	 * every search. The counts are recomputed whenever this index changes.
+	 *
+	 * @param length prefixes shorter than this use their added up counts
+	 * @param fanOut prefixes that match at least this many words use them too
+	 * @see PrefixAggregates
+	 */
+	public void aggregatePrefixes(int length, int fanOut) {
+		this.aggregates = new PrefixAggregates(length, fanOut);
+	}
+
+	/**
+	 * Returns the number of positions stored in the index, not counting removed
+	 * locations.
+	 *
+	 * @return number of positions
+	 */
+	public long size() {
+		return total;
 	}
 
 	/**
@@ -111,7 +615,7 @@ public class InvertedIndex {
 	 * @return true if empty
 	 */
 	public boolean empty() {
-		return this.index.size() == 0;
+		return this.countWords() == 0;
 	}
 
 	/**
@@ -120,8 +624,30 @@ public class InvertedIndex {
 	 * @param word word to look for
 	 * @return number of locations the word was found in
 	 */
+	@Override
 	public int numFiles(String word) {
-		return index.containsKey(word) ? index.get(word).size() : 0;
+		int term = terms.get(word);
+		return term < 0 ? 0 : liveFiles(postings(term));
+	}
+
+	/**
+	 * Adds every location a word was found in to a set, leaving out removed
+	 * locations. Used to count the locations of a word across several indexes
+	 * that may share locations.
+	 * 
+	 * @param word  word to look for
+	 * @param found the set of locations to add to
+	 */
+	protected void collectLocations(String word, Set<String> found) {
+		int term = terms.get(word);
+		if (term < 0) {
+			return;
+		}
+		for (int location : postings(term).keySet()) {
+			if (!removed.get(location)) {
+				found.add(locationIds.get(location));
+			}
+		}
 	}
 
 	/**
@@ -132,9 +658,14 @@ public class InvertedIndex {
 	 * @param location location to look for
 	 * @return number of times the word appears in a given location
 	 */
+	@Override
 	public int numPositions(String word, String location) {
-		return (index.containsKey(word) && index.get(word).containsKey(location)) ? index.get(word).get(location).size()
-				: 0;
+		int term = terms.get(word);
+		if (term < 0) {
+			return 0;
+		}
+		PostingList positions = postings(term).get(locationIds.get(location));
+		return positions == null ? 0 : positions.size();
 	}
 
 	/**
@@ -143,8 +674,10 @@ public class InvertedIndex {
 	 * @param word word to look for
 	 * @return true if the word is stored in the index
 	 */
+	@Override
 	public boolean contains(String word) {
-		return index.containsKey(word);
+		int term = terms.get(word);
+		return term >= 0 && liveFiles(postings(term)) > 0;
 	}
 
 	/**
@@ -155,8 +688,10 @@ public class InvertedIndex {
 	 * @param file position to look for word
 	 * @return true if the word is stored in the index at the specified position
 	 */
+	@Override
 	public boolean contains(String word, String file) {
-		return (index.containsKey(word) && index.get(word).containsKey(file));
+		int term = terms.get(word);
+		return term >= 0 && postings(term).containsKey(locationIds.get(file));
 	}
 
 	/**
@@ -169,6 +704,7 @@ public class InvertedIndex {
 	 * @see #partialSearch(Collection)
 	 * @see #exactSearch(Collection)
 	 */
+	@Override
 	public ArrayList<SearchResult> search(Collection<String> queries, boolean exact) {
 		return exact ? exactSearch(queries) : partialSearch(queries);
 	}
@@ -179,25 +715,33 @@ public class InvertedIndex {
 	 * @param line queries to search for
 	 * @return results list of SearchResults
 	 * 
-	 * @see #searchHelper(HashMap, ArrayList, String)
+	 * @see #searchHelper(Tally)
 	 */
+	@Override
 	public ArrayList<SearchResult> exactSearch(Collection<String> line) {
-		ArrayList<SearchResult> results = new ArrayList<SearchResult>();
-		/*
-		 * Only one search result per file. HashMap allows us to check if we already
-		 * stored that file so that the result's query count can be updated if another
-		 * query is found in the file.
-		 */
-		HashMap<String, SearchResult> resultMap = new HashMap<String, SearchResult>();
+		Tally tally = Tally.take(locationIds.size());
+		try {
+			exactMatches(line, tally);
+			return searchHelper(tally);
+		} finally {
+			tally.release();
+		}
+	}
 
+	/**
+	 * Counts the times each location contains a word that matches one of the
+	 * queries exactly.
+	 * 
+	 * @param line    queries to search for
+	 * @param matches the counts to add to
+	 */
+	private void exactMatches(Collection<String> line, Tally matches) {
 		for (String word : line) {
-			if (index.containsKey(word)) {
-				searchHelper(resultMap, results, word);
+			int term = terms.get(word);
+			if (term >= 0) {
+				matches(term, matches);
 			}
 		}
-
-		Collections.sort(results);
-		return results;
 	}
 
 	/**
@@ -206,50 +750,281 @@ public class InvertedIndex {
 	 * @param queries queries to search for
 	 * @return results list of search results
 	 * 
-	 * @see #searchHelper(HashMap, ArrayList, String)
+	 * @see #searchHelper(Tally)
 	 */
+	@Override
 	public ArrayList<SearchResult> partialSearch(Collection<String> queries) {
-		ArrayList<SearchResult> results = new ArrayList<SearchResult>();
-		/*
-		 * Only one search result per file. HashMap allows us to check if we already
-		 * stored that file so that the result's query count can be updated if another
-		 * query is found in the file.
-		 */
-		HashMap<String, SearchResult> resultMap = new HashMap<String, SearchResult>();
+		Tally tally = Tally.take(locationIds.size());
+		try {
+			partialMatches(queries, tally);
+			return searchHelper(tally);
+		} finally {
+			tally.release();
+		}
+	}
 
+	/**
+	 * Counts the times each location contains a word that starts with one of the
+	 * queries. Prefixes covered by the prefix aggregates are counted from their
+	 * aggregate instead of from the postings of every word.
+	 * 
+	 * @param queries queries to search for
+	 * @param matches the counts to add to
+	 * @see #aggregatePrefixes(int, int)
+	 */
+	private void partialMatches(Collection<String> queries, Tally matches) {
 		for (String query : queries) {
-			for (Entry<String, TreeMap<String, TreeSet<Integer>>> entry : index.tailMap(query).entrySet()) {
-				String word = entry.getKey();
-				if (word.startsWith(query)) {
-					searchHelper(resultMap, results, word);
-				} else {
-					break;
+			/* Words sharing a prefix are stored next to each other */
+			int start = sortedTerms.start(query);
+			int end = sortedTerms.end(query, start);
+			if (aggregates != null && aggregates.covers(query, end - start)) {
+				PrefixAggregates.Aggregate aggregate = aggregate(query, start, end);
+				for (int i = 0; i < aggregate.size(); i++) {
+					matches.add(aggregate.location(i), aggregate.count(i));
+				}
+			} else {
+				for (int i = start; i < end; i++) {
+					matches(sortedTerms.id(i), matches);
 				}
 			}
 		}
+	}
+
+	/**
+	 * Returns the aggregate of a prefix for the current generation of this index,
+	 * adding up the postings of every word that starts with it if it is not
+	 * stored yet.
+	 * 
+	 * @param prefix the prefix to look up
+	 * @param start  the position of the first word that starts with the prefix
+	 * @param end    the position just after the last word that starts with it
+	 * @return the number of times each location contains a word with the prefix
+	 */
+	private PrefixAggregates.Aggregate aggregate(String prefix, int start, int end) {
+		PrefixAggregates.Aggregate aggregate = aggregates.get(prefix, generation);
+		if (aggregate == null) {
+			Tally tally = new Tally(locationIds.size());
+			for (int i = start; i < end; i++) {
+				matches(sortedTerms.id(i), tally);
+			}
+
+			int[] matched = Arrays.copyOf(tally.touched, tally.size);
+			int[] counts = new int[matched.length];
+			for (int i = 0; i < matched.length; i++) {
+				counts[i] = tally.counts[matched[i]];
+			}
+			aggregate = new PrefixAggregates.Aggregate(matched, counts, generation);
+			aggregates.put(prefix, aggregate);
+		}
+		return aggregate;
+	}
+
+	/**
+	 * Searches for the best results only. Query counts are added up per location
+	 * ID in an array, and the locations are ranked in a heap that never holds more
+	 * than k of them, so only the results that are returned are ever created.
+	 * Results are ranked exactly as {@link SearchResult#compareTo(SearchResult)}
+	 * ranks them, so they are the first k results of a full search.
+	 * 
+	 * @param queries - queries to search for
+	 * @param exact   - exact or partial search
+	 * @param k       - the most results to return
+	 * @return sorted list of the best k search results
+	 */
+	@Override
+	public ArrayList<SearchResult> search(Collection<String> queries, boolean exact, int k) {
+		Tally tally = Tally.take(locationIds.size());
+		try {
+			if (exact) {
+				exactMatches(queries, tally);
+			} else {
+				partialMatches(queries, tally);
+			}
+			return top(tally, k);
+		} finally {
+			tally.release();
+		}
+	}
 
+	/**
+	 * Creates search results for the best k locations in a tally only, ranking
+	 * the locations in a heap that never holds more than k of them.
+	 * 
+	 * @param tally the query counts of the matching locations
+	 * @param k     the most results to return
+	 * @return sorted list of the best k search results
+	 */
+	private ArrayList<SearchResult> top(Tally tally, int k) {
+		/* The worst of the best locations found so far is kept at the root */
+		int[] heap = new int[Math.max(0, Math.min(k, tally.size))];
+		int size = 0;
+		for (int i = 0; i < tally.size; i++) {
+			int location = tally.touched[i];
+			if (size < heap.length) {
+				heap[size] = location;
+				siftUp(heap, size++, tally.counts);
+			} else if (size > 0 && rank(location, heap[0], tally.counts) < 0) {
+				heap[0] = location;
+				siftDown(heap, size, tally.counts);
+			}
+		}
+
+		ArrayList<SearchResult> results = new ArrayList<SearchResult>(size);
+		for (int i = 0; i < size; i++) {
+			int location = heap[i];
+			results.add(new SearchResult(locationIds.get(location), tally.counts[location], this.locations[location]));
+		}
 		Collections.sort(results);
 		return results;
 	}
 
 	/**
-	 * Helper method for partial and exact search. Adds a search result to results
-	 * for every file containing query found
+	 * Adds the number of times a word appears in each location to the counts,
+	 * skipping removed locations.
 	 * 
-	 * @param resultMap a mapping of locations to search results, if we find
-	 *                  multiple queries in the same file we update the files search
-	 *                  result instead of creating a new one
-	 * @param results   ArrayList of search results
-	 * @param query     the query we are currently searching for
-	 */
-	private void searchHelper(HashMap<String, SearchResult> resultMap, ArrayList<SearchResult> results, String query) {
-		for (String file : index.get(query).keySet()) {
-			if (!resultMap.containsKey(file)) {
-				SearchResult result = new SearchResult(file, this.numPositions(query, file), this.locations.get(file));
-				results.add(result);
-				resultMap.put(file, result);
+	 * @param term    the ID of the word we are currently searching for
+	 * @param matches the counts to add to
+	 */
+	private void matches(int term, Tally matches) {
+		for (Entry<Integer, PostingList> entry : postings(term).entrySet()) {
+			int location = entry.getKey();
+			if (!removed.get(location)) {
+				matches.add(location, entry.getValue().size());
+			}
+		}
+	}
+
+	/**
+	 * Compares two locations the way their search results would compare: by
+	 * score, then query count, then location.
+	 * 
+	 * @param first  the ID of a location
+	 * @param second the ID of another location
+	 * @param counts the query counts of every location
+	 * @return a negative number if the first location ranks before the second,
+	 *         and a positive number if it ranks after it
+	 */
+	private int rank(int first, int second, int[] counts) {
+		double score = (double) counts[first] / this.locations[first];
+		double other = (double) counts[second] / this.locations[second];
+		if (score == other) {
+			if (counts[first] == counts[second]) {
+				return locationIds.get(first).compareTo(locationIds.get(second));
+			}
+			return counts[first] < counts[second] ? 1 : -1;
+		}
+		return score < other ? 1 : -1;
+	}
+
+	/**
+	 * Moves a location up the heap until its parent ranks before it.
+	 * 
+	 * @param heap   the heap of location IDs, worst ranked first
+	 * @param i      the position of the location to move
+	 * @param counts the query counts of every location
+	 */
+	private void siftUp(int[] heap, int i, int[] counts) {
+		int location = heap[i];
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (rank(heap[parent], location, counts) > 0) {
+				break;
+			}
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = location;
+	}
+
+	/**
+	 * Moves the root of the heap down until both of its children rank before it.
+	 * 
+	 * @param heap   the heap of location IDs, worst ranked first
+	 * @param size   the number of locations in the heap
+	 * @param counts the query counts of every location
+	 */
+	private void siftDown(int[] heap, int size, int[] counts) {
+		int location = heap[0];
+		int i = 0;
+		while (2 * i + 1 < size) {
+			int child = 2 * i + 1;
+			if (child + 1 < size && rank(heap[child + 1], heap[child], counts) > 0) {
+				child++;
+			}
+			if (rank(heap[child], location, counts) < 0) {
+				break;
+			}
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = location;
+	}
+
+	/**
+	 * Searches this index without sorting or locking, and combines its results
+	 * with results already found in other indexes. Results for the same location
+	 * add up their query and word counts. Used to search several indexes as one.
+	 * 
+	 * @param queries queries to search for
+	 * @param exact   whether the queries must match words exactly
+	 * @param found   a mapping of locations to the results found so far
+	 */
+	protected void collect(Collection<String> queries, boolean exact, Map<String, SearchResult> found) {
+		Tally tally = Tally.take(locationIds.size());
+		try {
+			if (exact) {
+				exactMatches(queries, tally);
 			} else {
-				resultMap.get(file).updateCount(this.numPositions(query, file));
+				partialMatches(queries, tally);
+			}
+
+			for (int i = 0; i < tally.size; i++) {
+				int id = tally.touched[i];
+				String location = locationIds.get(id);
+				SearchResult other = found.get(location);
+				if (other == null) {
+					found.put(location, new SearchResult(location, tally.counts[id], this.locations[id]));
+				} else {
+					found.put(location, new SearchResult(location, other.getQueryCount() + tally.counts[id],
+							other.getWordCount() + this.locations[id]));
+				}
+			}
+		} finally {
+			tally.release();
+		}
+	}
+
+	/**
+	 * Helper method for partial and exact search. Creates a search result for
+	 * every location the queries were found in, once all of the counts have been
+	 * added up, so that no result is created or updated per posting.
+	 * 
+	 * @param tally the query counts of the matching locations
+	 * @return sorted list of search results
+	 */
+	private ArrayList<SearchResult> searchHelper(Tally tally) {
+		ArrayList<SearchResult> results = new ArrayList<SearchResult>(tally.size);
+		for (int i = 0; i < tally.size; i++) {
+			int location = tally.touched[i];
+			results.add(new SearchResult(locationIds.get(location), tally.counts[location], this.locations[location]));
+		}
+		Collections.sort(results);
+		return results;
+	}
+
+	/**
+	 * Adds an offset to every position in this index, so that an index built from
+	 * the middle of a file can be combined with one built from the part before
+	 * it. Only meant for a local index whose postings are not shared with any
+	 * other index.
+	 *
+	 * @param offset the amount to add to each position
+	 */
+	protected void shift(int offset) {
+		generation++;
+		for (int term = 0; term < terms.size(); term++) {
+			for (PostingList positions : postings(term).values()) {
+				positions.shift(offset);
 			}
 		}
 	}
@@ -261,23 +1036,99 @@ public class InvertedIndex {
 	 * @param local - The local index to add to the main thread's index
 	 */
 	public void addAll(InvertedIndex local) {
-		for (String word : local.index.keySet()) {
-			if (this.index.containsKey(word)) {
-				for (String location : local.index.get(word).keySet()) {
-					if (this.index.get(word).containsKey(location)) {
-						this.index.get(word).get(location).addAll(local.index.get(word).get(location));
-					} else {
-						this.index.get(word).put(location, local.index.get(word).get(location));
-					}
+		merge(local);
+	}
+
+	/**
+	 * Adds the contents of another index to this one. Used by every method that
+	 * merges indexes, so that none of them depend on a method a subclass may
+	 * override.
+	 *
+	 * @param local the index to add
+	 * @see #addAll(InvertedIndex)
+	 */
+	private void merge(InvertedIndex local) {
+		generation++;
+
+		/* Translate the local location IDs into IDs of this index */
+		int[] locationMap = new int[local.locationIds.size()];
+		for (int id = 0; id < locationMap.length; id++) {
+			if (local.removed.get(id) || local.locationIds.get(id) == null) {
+				locationMap[id] = -1;
+				continue;
+			}
+			locationMap[id] = this.locationId(local.locationIds.get(id));
+			this.locations[locationMap[id]] += local.locations[id];
+			this.total += local.locations[id];
+		}
+
+		for (int localTerm = 0; localTerm < local.terms.size(); localTerm++) {
+			/* Only words with a live posting are added, so no word is left without postings */
+			TreeMap<Integer, PostingList> postings = null;
+			for (Entry<Integer, PostingList> entry : local.postings(localTerm).entrySet()) {
+				int location = locationMap[entry.getKey()];
+				if (location < 0) {
+					continue;
+				}
+				if (postings == null) {
+					postings = this.postings(this.termId(local.terms.get(localTerm)));
+				}
+				PostingList positions = postings.get(location);
+				if (positions == null) {
+					postings.put(location, entry.getValue());
+				} else {
+					/* Lists may be shared with the index they came from, so merge into a copy */
+					PostingList merged = new PostingList();
+					merged.addAll(positions);
+					merged.addAll(entry.getValue());
+					postings.put(location, merged);
 				}
-			} else {
-				this.index.put(word, local.index.get(word));
 			}
 		}
+	}
+
+	/**
+	 * Splits this index into several indexes that each hold a share of the words.
+	 * Every word is stored in exactly one part, and the word counts of each part
+	 * only count the positions stored in that part. The parts share positions
+	 * with this index, which should not be changed afterwards.
+	 *
+	 * @param parts the number of parts
+	 * @param part  chooses the part of each word, between 0 and parts - 1
+	 * @return the parts, some of which may be empty
+	 */
+	public InvertedIndex[] partition(int parts, ToIntFunction<String> part) {
+		InvertedIndex[] split = new InvertedIndex[parts];
+		int[][] locationMaps = new int[parts][];
+		for (int i = 0; i < parts; i++) {
+			split[i] = new InvertedIndex();
+			locationMaps[i] = new int[locationIds.size()];
+			Arrays.fill(locationMaps[i], -1);
+		}
 
-		for (String location : local.locations.keySet()) {
-			this.locations.put(location, this.locations.getOrDefault(location, 0) + local.locations.get(location));
+		for (int position = 0; position < sortedTerms.size(); position++) {
+			String word = sortedTerms.word(position);
+			int i = part.applyAsInt(word);
+			InvertedIndex target = split[i];
+			TreeMap<Integer, PostingList> postings = null;
+			for (Entry<Integer, PostingList> entry : postings(sortedTerms.id(position)).entrySet()) {
+				int location = entry.getKey();
+				if (removed.get(location)) {
+					continue;
+				}
+				if (locationMaps[i][location] < 0) {
+					locationMaps[i][location] = target.locationId(locationIds.get(location));
+				}
+				if (postings == null) {
+					postings = target.postings(target.termId(word));
+				}
+				int id = locationMaps[i][location];
+				postings.put(id, entry.getValue());
+				target.locations[id] += entry.getValue().size();
+				target.total += entry.getValue().size();
+			}
 		}
+		return split;
 	}
 
 	/**
@@ -285,7 +1136,92 @@ public class InvertedIndex {
 	 */
 	@Override
 	public String toString() {
-		return this.index.toString();
+		TreeMap<String, TreeMap<String, PostingList>> words = new TreeMap<String, TreeMap<String, PostingList>>();
+		for (int i = 0; i < sortedTerms.size(); i++) {
+			words.put(sortedTerms.word(i), positions(sortedTerms.id(i)));
+		}
+		return words.toString();
 	}
 
+	/**
+	 * Query counts added up per location ID, along with the IDs that have been
+	 * counted, so the matching locations can be found without scanning every ID.
+	 * Tallies are kept in an {@link ObjectPool} shared by every thread rather than
+	 * one per thread, since a work queue of virtual threads starts a new thread for
+	 * every task and a per-thread tally would never be reused. Only the counts that were
+	 * touched are cleared when a tally is released, so a search allocates nothing
+	 * until it creates its results.
+	 */
+	private static class Tally {
+
+		/** Tallies that are not being used, shared by every thread */
+		private static final ObjectPool<Tally> POOL = new ObjectPool<Tally>();
+
+		/** The query count of each location ID */
+		private int[] counts;
+
+		/** The location IDs with a count, in the order they were first counted */
+		private int[] touched;
+
+		/** The number of location IDs with a count */
+		private int size;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param locations - The number of location IDs
+		 */
+		public Tally(int locations) {
+			this.counts = new int[locations];
+			this.touched = new int[16];
+			this.size = 0;
+		}
+
+		/**
+		 * Takes a tally from the pool, or a new one if every pooled tally is being
+		 * used, which must be released when the search is done with it.
+		 * 
+		 * @param locations - The number of location IDs
+		 * @return an empty tally with room for every location ID
+		 */
+		public static Tally take(int locations) {
+			Tally tally = POOL.take();
+			if (tally == null) {
+				return new Tally(locations);
+			}
+			if (tally.counts.length < locations) {
+				tally.counts = new int[Math.max(locations, 2 * tally.counts.length)];
+			}
+			return tally;
+		}
+
+		/**
+		 * Clears the counts that were touched and gives the tally back to the pool.
+		 * The tally must not be used afterwards. If the pool is full, the tally is
+		 * dropped.
+		 */
+		public void release() {
+			for (int i = 0; i < size; i++) {
+				counts[touched[i]] = 0;
+			}
+			size = 0;
+			POOL.release(this);
+		}
+
+		/**
+		 * Adds to the query count of a location.
+		 * 
+		 * @param location - The ID of the location
+		 * @param count    - The number of times a query was found in the location
+		 */
+		public void add(int location, int count) {
+			if (counts[location] == 0) {
+				if (size == touched.length) {
+					touched = Arrays.copyOf(touched, 2 * size);
+				}
+				touched[size++] = location;
+			}
+			counts[location] += count;
+		}
+	}
 }
\ No newline at end of file
@@ -1,12 +1,22 @@
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import opennlp.tools.stemmer.Stemmer;
-import opennlp.tools.stemmer.snowball.SnowballStemmer;
 
 /**
  * Builds a data structure that stores words and their positions in files.
@@ -15,6 +25,26 @@ import opennlp.tools.stemmer.snowball.SnowballStemmer;
  */
 public class InvertedIndexBuilder {
 
+	/** Logger to use for this class. */
+	private static final Logger log = LogManager.getLogger();
+
+	/** The number of bytes read before a batch of lines is stemmed. */
+	private static final int BATCH = 256 * 1024;
+
+	/** Files larger than this many bytes are indexed in chunks of about this size. */
+	public static final long CHUNK = 16 * 1024 * 1024;
+
+	/** A lock that never waits, used when there is no limit on stemming. */
+	private static final SimpleLock UNLIMITED = new SimpleLock() {
+		@Override
+		public void lock() {
+		}
+
+		@Override
+		public void unlock() {
+		}
+	};
+
 	/**
 	 * Stores a reference to an InvertedIndex
 	 */
@@ -42,15 +72,91 @@ public class InvertedIndexBuilder {
 	}
 
 	/**
-	 * Builds an InvertedIndex object from a given starting path
+	 * Builds an InvertedIndex object from a stream of files, adding each file as
+	 * soon as the stream produces it
+	 *
+	 * @param files - Stream of files to add to index
+	 * @throws IOException
+	 */
+	public void build(Stream<Path> files) throws IOException {
+		Iterator<Path> iterator = files.iterator();
+		while (iterator.hasNext()) {
+			InvertedIndexBuilder.buildFile(iterator.next(), this.index);
+		}
+	}
+
+	/**
+	 * Builds an InvertedIndex object from a given starting path, indexing files
+	 * while the rest of the directory is still being searched
 	 * 
 	 * @param start - Directory to start search from
 	 * @throws IOException
 	 */
 	public void build(Path start) throws IOException {
-		build(TextFileFinder.list(start));
+		try (Stream<Path> files = TextFileFinder.find(start)) {
+			build(files);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		log.debug("Stem cache: {}", StemCache.SHARED);
 	}
 	
+	/**
+	 * Brings the index up to date with the text files under a starting path. Only
+	 * files that are new or whose content changed since they were recorded in the
+	 * manifest are read again, and replace whatever the index held for them.
+	 * Files that were deleted are removed from the index. The manifest is updated
+	 * to match.
+	 * 
+	 * @param start    - Directory to start search from
+	 * @param manifest - The files as they were when the index was last built
+	 * @throws IOException
+	 */
+	public void update(Path start, FileManifest manifest) throws IOException {
+		List<Path> changed = new ArrayList<Path>();
+		HashSet<String> found = new HashSet<String>();
+		for (Path file : TextFileFinder.list(start)) {
+			found.add(file.toString());
+			if (manifest.update(file)) {
+				changed.add(file);
+			}
+		}
+
+		ArrayList<String> deleted = new ArrayList<String>();
+		for (String location : manifest.locations()) {
+			if (!found.contains(location) && Paths.get(location).startsWith(start)) {
+				deleted.add(location);
+			}
+		}
+		for (String location : deleted) {
+			manifest.remove(location);
+		}
+
+		log.debug("Updating {} changed files and removing {} deleted files.", changed.size(), deleted.size());
+		this.index.removeLocations(deleted);
+		rebuild(changed);
+	}
+
+	/**
+	 * Indexes files again, replacing whatever the index held for each of them.
+	 * Compacts the index afterwards if enough old positions were left behind.
+	 * 
+	 * @param files - List of files to index again
+	 * @throws IOException
+	 * @see InvertedIndex#replaceLocation(String, InvertedIndex)
+	 */
+	public void rebuild(List<Path> files) throws IOException {
+		for (Path file : files) {
+			InvertedIndex local = new InvertedIndex();
+			InvertedIndexBuilder.buildFile(file, local);
+			this.index.replaceLocation(file.toString(), local);
+		}
+
+		if (this.index.needsCompaction()) {
+			this.index.compact();
+		}
+	}
+
 	/**
 	 * Adds stemmed words of one file to the Inverted Index
 	 * 
@@ -59,18 +165,152 @@ public class InvertedIndexBuilder {
 	 * @throws IOException
 	 */
 	public static void buildFile(Path file, InvertedIndex index) throws IOException {
-		int count = 0;
-		Stemmer stemmer = new SnowballStemmer(SnowballStemmer.ALGORITHM.ENGLISH);
-		try (BufferedReader w = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
-			String location = file.toString();
-			String line;
-			while ((line = w.readLine()) != null) {
-				for (String word : TextParser.parse(line)) {
-					index.add(stemmer.stem(word).toString(), location, ++count);
+		buildFile(file, index, UNLIMITED);
+	}
+
+	/**
+	 * Adds stemmed words of one file to the Inverted Index, reading the file in
+	 * batches of lines. The CPU lock is only held while a batch is being stemmed,
+	 * so other tasks can stem while this one waits for the next batch to be read.
+	 * 
+	 * @param file  - File to add to index
+	 * @param index - Index to build
+	 * @param cpu   - Lock limiting how many tasks stem at once
+	 * @throws IOException
+	 * @see WorkQueue#cpuLock()
+	 */
+	public static void buildFile(Path file, InvertedIndex index, SimpleLock cpu) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			buildBytes(channel, 0, Long.MAX_VALUE, file.toString(), index, cpu);
+		}
+	}
+
+	/**
+	 * Adds stemmed words of one chunk of a file to the Inverted Index. The first
+	 * word of the chunk is stored at position 1; the positions can be moved to
+	 * where the chunk is in the file once the number of words before it is known.
+	 * 
+	 * @param file  - File the chunk is part of
+	 * @param start - Offset of the first byte of the chunk
+	 * @param end   - Offset just past the last byte of the chunk
+	 * @param index - Index to build
+	 * @param cpu   - Lock limiting how many tasks stem at once
+	 * @return the number of words in the chunk
+	 * @throws IOException
+	 * @see #chunks(Path)
+	 * @see InvertedIndex#shift(int)
+	 */
+	public static int buildChunk(Path file, long start, long end, InvertedIndex index, SimpleLock cpu)
+			throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return buildBytes(channel, start, end, file.toString(), index, cpu);
+		}
+	}
+
+	/**
+	 * Splits a file into chunks of about {@link #CHUNK} bytes. Every chunk but the
+	 * last ends just after a line feed, so each line is read whole by exactly one
+	 * chunk, and a file read chunk by chunk has the same words as when it is read
+	 * at once.
+	 * 
+	 * @param file - File to split
+	 * @return the offsets where the chunks start, followed by the size of the file
+	 * @throws IOException
+	 */
+	public static long[] chunks(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			ArrayList<Long> bounds = new ArrayList<Long>();
+			ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+			long bound = 0;
+			while (bound < size) {
+				bounds.add(bound);
+				long next = bound + CHUNK;
+				bound = size;
+				while (next < size) {
+					buffer.clear();
+					int read = channel.read(buffer, next);
+					if (read <= 0) {
+						break;
+					}
+					int newline = -1;
+					for (int i = 0; i < read && newline < 0; i++) {
+						if (buffer.get(i) == '\n') {
+							newline = i;
+						}
+					}
+					if (newline >= 0) {
+						bound = next + newline + 1;
+						break;
+					}
+					next += read;
 				}
 			}
-		} catch (IOException e) {
-			throw e;
+			bounds.add(size);
+			return bounds.stream().mapToLong(Long::longValue).toArray();
+		}
+	}
+
+	/**
+	 * Adds stemmed words of a range of UTF-8 bytes to the Inverted Index. The bytes
+	 * are read in batches without decoding them; each batch is cut after its last
+	 * line break, and the lines before it are parsed while holding the CPU lock
+	 * and a pooled stemmer. A line longer than a batch grows the buffer until it
+	 * fits.
+	 * 
+	 * @param channel  - Channel to read from
+	 * @param start    - Offset of the first byte to read
+	 * @param end      - Offset just past the last byte to read
+	 * @param location - Location the words were found in
+	 * @param index    - Index to build
+	 * @param cpu      - Lock limiting how many tasks stem at once
+	 * @return the number of words added
+	 * @throws IOException
+	 * @see TextParser#parse(byte[], int, int, Consumer)
+	 */
+	private static int buildBytes(FileChannel channel, long start, long end, String location, InvertedIndex index,
+			SimpleLock cpu) throws IOException {
+		int[] count = new int[1];
+		long size = Math.min(end, channel.size()) - start;
+		byte[] buffer = new byte[(int) Math.max(1, Math.min(BATCH, size + 1))];
+		int filled = 0;
+		long position = start;
+		boolean done = false;
+		while (!done) {
+			int read = channel.read(ByteBuffer.wrap(buffer, filled, (int) Math.min(buffer.length - filled, end - position)),
+					position);
+			if (read > 0) {
+				position += read;
+				filled += read;
+			}
+			done = read < 0 || position >= end;
+
+			int cut = filled;
+			if (!done) {
+				while (cut > 0 && buffer[cut - 1] != '\n' && buffer[cut - 1] != '\r') {
+					cut--;
+				}
+				if (cut == 0) {
+					if (filled == buffer.length) {
+						buffer = Arrays.copyOf(buffer, buffer.length * 2);
+					}
+					continue;
+				}
+			}
+
+			cpu.lock();
+			Stemmer stemmer = TextFileStemmer.takeStemmer();
+			try {
+				TextParser.parse(buffer, 0, cut,
+						word -> index.add(StemCache.SHARED.stem(word, stemmer), location, ++count[0]));
+			} finally {
+				TextFileStemmer.releaseStemmer(stemmer);
+				cpu.unlock();
+			}
+
+			System.arraycopy(buffer, cut, buffer, 0, filled - cut);
+			filled -= cut;
 		}
+		return count[0];
 	}
-}
\ No newline at end of file
+}
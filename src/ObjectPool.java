@@ -0,0 +1,74 @@
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A small pool of objects that are expensive to create and can only be used by
+ * one thread at a time, shared by every thread. Objects are kept in a fixed
+ * number of slots, and each thread starts looking at a different slot, so
+ * threads taking and giving back objects at the same time rarely touch the same
+ * slot. Slots are claimed and filled with atomic operations, without locking.
+ *
+ * Unlike a {@link ThreadLocal}, the pool also reuses objects across short-lived
+ * threads, such as the virtual threads that run each task of a
+ * {@link WorkQueue}.
+ *
+ * @author Ryan Dielhenn
+ *
+ * @param <T> the type of the pooled objects
+ */
+public class ObjectPool<T> {
+
+	/** The objects that are not being used. Empty slots are null. */
+	private final AtomicReferenceArray<T> slots;
+
+	/**
+	 * Initializes an empty pool with a few slots for each processor.
+	 */
+	public ObjectPool() {
+		this(Math.max(16, 4 * Runtime.getRuntime().availableProcessors()));
+	}
+
+	/**
+	 * Initializes an empty pool.
+	 *
+	 * @param size the most objects to keep
+	 */
+	public ObjectPool(int size) {
+		this.slots = new AtomicReferenceArray<T>(size);
+	}
+
+	/**
+	 * Takes an object that no other thread is using. It should be given back with
+	 * {@link #release(Object)} once done.
+	 *
+	 * @return a pooled object, or null if the pool is empty
+	 */
+	public T take() {
+		int start = (int) Thread.currentThread().getId();
+		for (int i = 0; i < slots.length(); i++) {
+			int slot = Math.floorMod(start + i, slots.length());
+			if (slots.get(slot) != null) {
+				T object = slots.getAndSet(slot, null);
+				if (object != null) {
+					return object;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Gives back an object, which must not be used afterwards. If the pool is
+	 * full, the object is dropped.
+	 *
+	 * @param object the object to give back
+	 */
+	public void release(T object) {
+		int start = (int) Thread.currentThread().getId();
+		for (int i = 0; i < slots.length(); i++) {
+			int slot = Math.floorMod(start + i, slots.length());
+			if (slots.get(slot) == null && slots.compareAndSet(slot, null, object)) {
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,388 @@
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * A compact sorted set of positions. Each position is stored as the difference
+ * from the previous position, encoded as a variable-length integer in a
+ * growable byte array, so positions that are close together take a single byte
+ * each.
+ *
+ * Positions added in increasing order are appended in constant time. Adding a
+ * position out of order is supported, but requires the list to be re-encoded.
+ *
+ * @author Ryan Dielhenn
+ */
+public class PostingList implements Iterable<Integer> {
+
+	/**
+	 * The delta and varint encoded positions.
+	 */
+	private byte[] bytes;
+
+	/**
+	 * The number of bytes in use.
+	 */
+	private int length;
+
+	/**
+	 * The number of positions stored.
+	 */
+	private int size;
+
+	/**
+	 * The largest position stored, used to encode the next appended position.
+	 */
+	private int last;
+
+	/**
+	 * Initializes an empty posting list.
+	 */
+	public PostingList() {
+		this.bytes = new byte[4];
+		this.length = 0;
+		this.size = 0;
+		this.last = 0;
+	}
+
+	/**
+	 * Initializes a posting list from bytes previously produced by
+	 * {@link #write(DataOutput)}.
+	 *
+	 * @param buffer the buffer to read from, positioned at the start of the list
+	 * @see #write(DataOutput)
+	 */
+	public PostingList(ByteBuffer buffer) {
+		this.size = readVarint(buffer);
+		this.length = readVarint(buffer);
+		this.bytes = new byte[Math.max(length, 4)];
+		buffer.get(this.bytes, 0, length);
+		this.last = 0;
+		PrimitiveIterator.OfInt iterator = iterator();
+		while (iterator.hasNext()) {
+			this.last = iterator.nextInt();
+		}
+	}
+
+	/**
+	 * Adds a position to this list. Positions must not be negative.
+	 *
+	 * @param position the position to add
+	 * @return true if this list did not already contain the position
+	 */
+	public boolean add(int position) {
+		if (size == 0 || position > last) {
+			append(position);
+			return true;
+		}
+		if (position == last || contains(position)) {
+			return false;
+		}
+		encode(merge(toArray(), new int[] { position }));
+		return true;
+	}
+
+	/**
+	 * Adds every position in another list to this list.
+	 *
+	 * @param other the positions to add
+	 * @return true if this list changed as a result of the call
+	 */
+	public boolean addAll(PostingList other) {
+		if (other.size == 0) {
+			return false;
+		}
+		if (size == 0 || other.first() > last) {
+			/* Fast path: the other list starts after this one ends */
+			int start = skip(other.bytes, 0);
+			append(other.first());
+			ensureCapacity(length + other.length - start);
+			System.arraycopy(other.bytes, start, bytes, length, other.length - start);
+			length += other.length - start;
+			size += other.size - 1;
+			last = other.last;
+			return true;
+		}
+		int before = size;
+		encode(merge(toArray(), other.toArray()));
+		return size != before;
+	}
+
+	/**
+	 * Adds an offset to every position in this list. Positions are stored as the
+	 * difference from the previous position, so only the first one is encoded
+	 * again.
+	 *
+	 * @param offset the amount to add to each position
+	 */
+	public void shift(int offset) {
+		if (size == 0 || offset == 0) {
+			return;
+		}
+		int first = first();
+		int start = skip(bytes, 0);
+		byte[] rest = Arrays.copyOfRange(bytes, start, length);
+		int count = size;
+		int end = last;
+
+		length = 0;
+		size = 0;
+		append(first + offset);
+		ensureCapacity(length + rest.length);
+		System.arraycopy(rest, 0, bytes, length, rest.length);
+		length += rest.length;
+		size = count;
+		last = end + offset;
+	}
+
+	/**
+	 * Tests whether this list contains the position.
+	 *
+	 * @param position the position to look for
+	 * @return true if the position is stored in this list
+	 */
+	public boolean contains(int position) {
+		if (size == 0 || position > last) {
+			return false;
+		}
+		PrimitiveIterator.OfInt iterator = iterator();
+		while (iterator.hasNext()) {
+			int next = iterator.nextInt();
+			if (next >= position) {
+				return next == position;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the number of positions stored in this list.
+	 *
+	 * @return number of positions
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns true if this list is empty
+	 *
+	 * @return true if empty
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the smallest position in this list.
+	 *
+	 * @return the first position
+	 * @throws NoSuchElementException if this list is empty
+	 */
+	public int first() {
+		if (size == 0) {
+			throw new NoSuchElementException();
+		}
+		return iterator().nextInt();
+	}
+
+	/**
+	 * Returns the largest position in this list.
+	 *
+	 * @return the last position
+	 * @throws NoSuchElementException if this list is empty
+	 */
+	public int last() {
+		if (size == 0) {
+			throw new NoSuchElementException();
+		}
+		return last;
+	}
+
+	/**
+	 * Returns the positions in this list as a sorted array.
+	 *
+	 * @return array of positions
+	 */
+	public int[] toArray() {
+		int[] positions = new int[size];
+		PrimitiveIterator.OfInt iterator = iterator();
+		for (int i = 0; i < size; i++) {
+			positions[i] = iterator.nextInt();
+		}
+		return positions;
+	}
+
+	/**
+	 * Writes the number of positions and the encoded positions.
+	 *
+	 * @param out the output to write to
+	 * @throws IOException
+	 * @see #PostingList(ByteBuffer)
+	 */
+	public void write(DataOutput out) throws IOException {
+		writeVarint(out, size);
+		writeVarint(out, length);
+		out.write(bytes, 0, length);
+	}
+
+	/**
+	 * Returns an iterator over the positions in increasing order.
+	 */
+	@Override
+	public PrimitiveIterator.OfInt iterator() {
+		return new PrimitiveIterator.OfInt() {
+			private int offset = 0;
+			private int remaining = size;
+			private int position = 0;
+
+			@Override
+			public boolean hasNext() {
+				return remaining > 0;
+			}
+
+			@Override
+			public int nextInt() {
+				if (remaining == 0) {
+					throw new NoSuchElementException();
+				}
+				int delta = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = bytes[offset++];
+					delta |= (b & 0x7F) << shift;
+					shift += 7;
+				} while (b < 0);
+				position += delta;
+				remaining--;
+				return position;
+			}
+		};
+	}
+
+	/**
+	 * Appends a position that is larger than every stored position.
+	 *
+	 * @param position the position to append
+	 */
+	private void append(int position) {
+		int delta = size == 0 ? position : position - last;
+		ensureCapacity(length + 5);
+		while ((delta & ~0x7F) != 0) {
+			bytes[length++] = (byte) ((delta & 0x7F) | 0x80);
+			delta >>>= 7;
+		}
+		bytes[length++] = (byte) delta;
+		last = position;
+		size++;
+	}
+
+	/**
+	 * Replaces the contents of this list with sorted, unique positions.
+	 *
+	 * @param positions the positions to store
+	 */
+	private void encode(int[] positions) {
+		length = 0;
+		size = 0;
+		last = 0;
+		for (int position : positions) {
+			append(position);
+		}
+	}
+
+	/**
+	 * Grows the byte array so that it can hold at least the given number of bytes.
+	 *
+	 * @param capacity the number of bytes needed
+	 */
+	private void ensureCapacity(int capacity) {
+		if (capacity > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length + (bytes.length >> 1)));
+		}
+	}
+
+	/**
+	 * Returns the offset just past the varint starting at the offset.
+	 *
+	 * @param bytes  the encoded bytes
+	 * @param offset where the varint starts
+	 * @return the offset of the next varint
+	 */
+	private static int skip(byte[] bytes, int offset) {
+		while (bytes[offset] < 0) {
+			offset++;
+		}
+		return offset + 1;
+	}
+
+	/**
+	 * Writes a non-negative integer as a varint, 7 bits per byte with the high bit
+	 * set on every byte but the last.
+	 *
+	 * @param out   the output to write to
+	 * @param value the value to write
+	 * @throws IOException
+	 */
+	public static void writeVarint(DataOutput out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	/**
+	 * Reads a varint written by {@link #writeVarint(DataOutput, int)}.
+	 *
+	 * @param buffer the buffer to read from
+	 * @return the value read
+	 */
+	public static int readVarint(ByteBuffer buffer) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+
+	/**
+	 * Merges two sorted arrays, dropping duplicates.
+	 *
+	 * @param a the first sorted array
+	 * @param b the second sorted array
+	 * @return the sorted union of both arrays
+	 */
+	private static int[] merge(int[] a, int[] b) {
+		int[] merged = new int[a.length + b.length];
+		int i = 0, j = 0, k = 0;
+		while (i < a.length || j < b.length) {
+			int next;
+			if (j == b.length || (i < a.length && a[i] <= b[j])) {
+				next = a[i++];
+			} else {
+				next = b[j++];
+			}
+			if (k == 0 || merged[k - 1] != next) {
+				merged[k++] = next;
+			}
+		}
+		return Arrays.copyOf(merged, k);
+	}
+
+	/**
+	 * Returns a string representation of this list.
+	 */
+	@Override
+	public String toString() {
+		return Arrays.toString(toArray());
+	}
+}
@@ -0,0 +1,161 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The postings of every word that starts with a prefix, added up per location,
+ * for the short and broad prefixes that make partial search slow. A one or two
+ * letter query can match thousands of words, and merging all of their postings
+ * on every search costs far more than reading one list of location counts.
+ *
+ * A prefix is covered if it is shorter than a given length, or if it matches at
+ * least a given number of words. The aggregate of a covered prefix is computed
+ * the first time the prefix is searched and reused until the index changes.
+ * Each aggregate records the generation of the index it was computed from, and
+ * is never returned for any other generation, so an update to the index can
+ * never make a search return stale counts.
+ *
+ * Any number of threads may read and store aggregates at once.
+ *
+ * @author Ryan Dielhenn
+ */
+public class PrefixAggregates {
+
+	/** The default length that prefixes must be shorter than to be covered. */
+	public static final int LENGTH = 3;
+
+	/** The default number of words a longer prefix must match to be covered. */
+	public static final int FAN_OUT = 256;
+
+	/** The most aggregates to store. */
+	private static final int CAPACITY = 4096;
+
+	/** Prefixes shorter than this are covered. */
+	private final int length;
+
+	/** Prefixes that match at least this many words are covered. */
+	private final int fanOut;
+
+	/** The stored aggregates, by prefix. */
+	private final ConcurrentHashMap<String, Aggregate> aggregates;
+
+	/**
+	 * Initializes an empty set of aggregates.
+	 *
+	 * @param length prefixes shorter than this are covered
+	 * @param fanOut prefixes that match at least this many words are covered
+	 */
+	public PrefixAggregates(int length, int fanOut) {
+		this.length = length;
+		this.fanOut = fanOut;
+		this.aggregates = new ConcurrentHashMap<String, Aggregate>();
+	}
+
+	/**
+	 * Initializes an empty set of aggregates that covers the same prefixes as
+	 * another.
+	 *
+	 * @param other the aggregates whose settings to copy
+	 */
+	public PrefixAggregates(PrefixAggregates other) {
+		this(other.length, other.fanOut);
+	}
+
+	/**
+	 * Tests whether searches for a prefix should use its aggregate.
+	 *
+	 * @param prefix the prefix being searched for
+	 * @param words  the number of words that start with the prefix
+	 * @return true if the prefix is short or matches many words
+	 */
+	public boolean covers(String prefix, int words) {
+		return words > 1 && (prefix.length() < length || words >= fanOut);
+	}
+
+	/**
+	 * Returns the aggregate of a prefix, if one was stored for the given
+	 * generation of the index.
+	 *
+	 * @param prefix     the prefix to look up
+	 * @param generation the current generation of the index
+	 * @return the aggregate, or null if there is none for this generation
+	 */
+	public Aggregate get(String prefix, long generation) {
+		Aggregate aggregate = aggregates.get(prefix);
+		return aggregate == null || aggregate.generation != generation ? null : aggregate;
+	}
+
+	/**
+	 * Stores the aggregate of a prefix, replacing any older one. Once the capacity
+	 * is reached, aggregates from older generations are removed to make room, and
+	 * if there is still no room the aggregate is not stored.
+	 *
+	 * @param prefix    the prefix
+	 * @param aggregate the aggregate of the prefix
+	 */
+	public void put(String prefix, Aggregate aggregate) {
+		if (aggregates.size() >= CAPACITY && !aggregates.containsKey(prefix)) {
+			aggregates.values().removeIf(other -> other.generation != aggregate.generation);
+			if (aggregates.size() >= CAPACITY) {
+				return;
+			}
+		}
+		aggregates.put(prefix, aggregate);
+	}
+
+	/**
+	 * The number of times each location contains a word that starts with a
+	 * prefix, for one generation of an index.
+	 */
+	public static class Aggregate {
+
+		/** The IDs of the locations */
+		private final int[] locations;
+
+		/** The number of times each location contains a word with the prefix */
+		private final int[] counts;
+
+		/** The generation of the index this aggregate was computed from */
+		private final long generation;
+
+		/**
+		 * Constructor
+		 *
+		 * @param locations  - The IDs of the locations
+		 * @param counts     - The count of each location, in the same order
+		 * @param generation - The generation of the index this was computed from
+		 */
+		public Aggregate(int[] locations, int[] counts, long generation) {
+			this.locations = locations;
+			this.counts = counts;
+			this.generation = generation;
+		}
+
+		/**
+		 * Returns the number of locations in this aggregate.
+		 *
+		 * @return number of locations
+		 */
+		public int size() {
+			return locations.length;
+		}
+
+		/**
+		 * Returns the ID of a location.
+		 *
+		 * @param i - The position of the location in this aggregate
+		 * @return the ID of the location
+		 */
+		public int location(int i) {
+			return locations[i];
+		}
+
+		/**
+		 * Returns the number of times a location contains a word with the prefix.
+		 *
+		 * @param i - The position of the location in this aggregate
+		 * @return the count of the location
+		 */
+		public int count(int i) {
+			return counts[i];
+		}
+	}
+}
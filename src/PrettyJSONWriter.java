@@ -7,6 +7,8 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.DecimalFormat;
 import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
@@ -87,6 +89,31 @@ public class PrettyJSONWriter {
 		}
 	}
 
+	/**
+	 * Writes the positions as a pretty JSON array.
+	 *
+	 * @param elements the positions to write
+	 * @param writer   the writer to use
+	 * @param level    the initial indent level
+	 * @throws IOException
+	 */
+	public static void asArray(PostingList elements, Writer writer, int level) throws IOException {
+		writer.write("[");
+		writer.write(System.lineSeparator());
+
+		PrimitiveIterator.OfInt iterator = elements.iterator();
+		while (iterator.hasNext()) {
+			indent(writer, level + 1);
+			writer.write(Integer.toString(iterator.nextInt()));
+			if (iterator.hasNext()) {
+				writer.write(",");
+			}
+			writer.write(System.lineSeparator());
+		}
+		indent(writer, level);
+		writer.write("]");
+	}
+
 	/**
 	 * Writes the elements as a pretty JSON object.
 	 *
@@ -186,6 +213,39 @@ public class PrettyJSONWriter {
 
 	}
 
+	/**
+	 * Writes the locations and their positions as a nested pretty JSON object.
+	 *
+	 * @param elements the elements to write
+	 * @param writer   the writer to use
+	 * @param level    the initial indent level
+	 * @throws IOException
+	 *
+	 * @see #asArray(PostingList, Writer, int)
+	 */
+	public static void asNestedObject(SortedMap<String, PostingList> elements, Writer writer, int level)
+			throws IOException {
+		writer.write("{");
+		writer.write(System.lineSeparator());
+		if (!elements.isEmpty()) {
+			for (String elem : elements.headMap(elements.lastKey()).keySet()) {
+				indent(writer, level + 1);
+				quote(elem, writer);
+				writer.write(": ");
+				asArray(elements.get(elem), writer, level + 1);
+				writer.write(",");
+				writer.write(System.lineSeparator());
+			}
+			indent(writer, level + 1);
+			quote(elements.lastKey(), writer);
+			writer.write(": ");
+			asArray(elements.get(elements.lastKey()), writer, level + 1);
+			writer.write(System.lineSeparator());
+		}
+		indent(writer, level);
+		writer.write("}");
+	}
+
 	/**
 	 * Writes the elements as a nested pretty JSON object to file.
 	 *
@@ -0,0 +1,256 @@
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of search results, kept in least recently used order, that can
+ * be shared by any number of result finders and threads. Results are stored
+ * under the index that was searched, the cleaned and stemmed query, the type of
+ * search and the limit on the number of results, along with the generation of
+ * the index they were found in, and are only returned while the index is still
+ * at that generation, so a change to the index never returns stale results and
+ * results are never returned for a different index.
+ *
+ * The cache is bounded by an estimate of the memory its entries use rather than
+ * their number, since the results of a single common word can be far larger
+ * than those of a rare one. Once the estimate goes over the capacity, the least
+ * recently used entries are removed.
+ *
+ * @author Ryan Dielhenn
+ */
+public class QueryCache {
+
+	/** The default capacity, in megabytes. */
+	public static final int DEFAULT = 32;
+
+	/** The estimated size of an entry apart from its query and results, in bytes. */
+	private static final int ENTRY_BYTES = 104;
+
+	/** The estimated size of one search result in a cached list, in bytes. */
+	private static final int RESULT_BYTES = 48;
+
+	/** The cached entries, from least to most recently used. */
+	private final LinkedHashMap<Key, Entry> entries;
+
+	/** The most bytes the entries may use. */
+	private final long capacity;
+
+	/** The estimated number of bytes the entries use. */
+	private long size;
+
+	/** The number of searches answered from the cache. */
+	private final LongAdder hits;
+
+	/** The number of searches that had to search the index. */
+	private final LongAdder misses;
+
+	/**
+	 * Initializes an empty cache.
+	 *
+	 * @param capacity the most bytes the cached results may use, as estimated
+	 */
+	public QueryCache(long capacity) {
+		this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+		this.capacity = capacity;
+		this.size = 0;
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+	}
+
+	/**
+	 * Returns the results of a search, searching the index only if the results are
+	 * not cached for the index's current generation. The generation is read
+	 * before searching, so if the index changes during the search the results are
+	 * cached under the older generation and will not be returned again.
+	 *
+	 * @param index   the index to search
+	 * @param queries the cleaned and stemmed words to search for
+	 * @param query   the words joined into a single string, used as the key
+	 * @param exact   exact or partial search
+	 * @param limit   the most results to return, or 0 to return them all
+	 * @return the search results, which must not be changed
+	 */
+	public List<SearchResult> search(SearchableIndex index, Collection<String> queries, String query, boolean exact,
+			int limit) {
+		Key key = new Key(index, query, exact, limit);
+		long generation = index.generation();
+		List<SearchResult> results = get(key, generation);
+		if (results != null) {
+			hits.increment();
+			return results;
+		}
+
+		misses.increment();
+		results = limit > 0 ? index.search(queries, exact, limit) : index.search(queries, exact);
+		put(key, new Entry(results, generation, ENTRY_BYTES + 2L * query.length() + (long) RESULT_BYTES * results.size()));
+		return results;
+	}
+
+	/**
+	 * Returns the cached results for a key, removing them if the index has changed
+	 * since they were found.
+	 *
+	 * @param key        the query and type of search
+	 * @param generation the current generation of the index
+	 * @return the cached results, or null if there are none for this generation
+	 */
+	private synchronized List<SearchResult> get(Key key, long generation) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (entry.generation != generation) {
+			entries.remove(key);
+			size -= entry.bytes;
+			return null;
+		}
+		return entry.results;
+	}
+
+	/**
+	 * Adds results to the cache, then removes the least recently used entries
+	 * until the cache is within its capacity. Results larger than the whole
+	 * capacity are not cached, and results from an older generation of the index
+	 * never replace those from a newer one, since a slow search may finish after
+	 * the index changed and a faster search cached the newer results.
+	 *
+	 * @param key   the query and type of search
+	 * @param entry the results
+	 */
+	private synchronized void put(Key key, Entry entry) {
+		if (entry.bytes > capacity) {
+			return;
+		}
+
+		Entry old = entries.get(key);
+		if (old != null && old.generation > entry.generation) {
+			return;
+		}
+
+		entries.put(key, entry);
+		size += entry.bytes - (old == null ? 0 : old.bytes);
+
+		Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+		while (size > capacity && eldest.hasNext()) {
+			size -= eldest.next().getValue().bytes;
+			eldest.remove();
+		}
+	}
+
+	/**
+	 * Returns the number of searches answered from the cache.
+	 *
+	 * @return number of hits
+	 */
+	public long hits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of searches that were not answered from the cache.
+	 *
+	 * @return number of misses
+	 */
+	public long misses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the share of searches answered from the cache.
+	 *
+	 * @return the hit ratio, between 0 and 1
+	 */
+	public double hitRatio() {
+		long hit = hits();
+		long total = hit + misses();
+		return total == 0 ? 0.0 : (double) hit / total;
+	}
+
+	/**
+	 * Returns a summary of how well the cache is working.
+	 */
+	@Override
+	public synchronized String toString() {
+		return String.format("%d entries using about %d of %d bytes, %d hits, %d misses (%.1f%% hit ratio)",
+				entries.size(), size, capacity, hits(), misses(), 100 * hitRatio());
+	}
+
+	/**
+	 * The index searched, a query, the type of search and the limit on the number
+	 * of results.
+	 */
+	private static class Key {
+
+		/** The index searched, compared by identity */
+		private final SearchableIndex index;
+
+		/** The cleaned and stemmed query */
+		private final String query;
+
+		/** Exact or partial search */
+		private final boolean exact;
+
+		/** The most results to return, or 0 to return them all */
+		private final int limit;
+
+		/**
+		 * Constructor
+		 *
+		 * @param index - The index searched
+		 * @param query - The cleaned and stemmed query
+		 * @param exact - Exact or partial search
+		 * @param limit - The most results to return, or 0 to return them all
+		 */
+		public Key(SearchableIndex index, String query, boolean exact, int limit) {
+			this.index = index;
+			this.query = query;
+			this.exact = exact;
+			this.limit = limit;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) other;
+			return index == key.index && exact == key.exact && limit == key.limit && query.equals(key.query);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (31 * (31 * System.identityHashCode(index) + query.hashCode()) + limit) + (exact ? 1 : 0);
+		}
+	}
+
+	/**
+	 * Search results and the index generation they were found in.
+	 */
+	private static class Entry {
+
+		/** The search results */
+		private final List<SearchResult> results;
+
+		/** The generation of the index the results were found in */
+		private final long generation;
+
+		/** The estimated number of bytes used by this entry */
+		private final long bytes;
+
+		/**
+		 * Constructor
+		 *
+		 * @param results    - The search results
+		 * @param generation - The generation of the index the results were found in
+		 * @param bytes      - The estimated number of bytes used by this entry
+		 */
+		public Entry(List<SearchResult> results, long generation, long bytes) {
+			this.results = results;
+			this.generation = generation;
+			this.bytes = bytes;
+		}
+	}
+}
@@ -8,8 +8,10 @@ import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.stream.Collectors;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
 import opennlp.tools.stemmer.Stemmer;
-import opennlp.tools.stemmer.snowball.SnowballStemmer;
 
 /**
  * A class that builds a mapping of search queries to search results
@@ -21,20 +23,46 @@ public class ResultFinder implements ResultFinderInterface {
 	/**
 	 * Index to search
 	 */
-	private final InvertedIndex index;
+	private final SearchableIndex index;
 
 	/**
 	 * Queries mapped to search results found from search
 	 */
 	private final TreeMap<String, List<SearchResult>> queryMap;
 
+	/**
+	 * Cache of search results to check before searching, or null to always search
+	 */
+	private final QueryCache cache;
+
+	/**
+	 * The most results to keep for each query, or 0 to keep them all
+	 */
+	private final int limit;
+
+	/** Logger to use for this class. */
+	private static final Logger log = LogManager.getLogger();
+
 	/**
 	 * Constructor
 	 * 
 	 * @param index
 	 */
-	public ResultFinder(InvertedIndex index) {
+	public ResultFinder(SearchableIndex index) {
+		this(index, null, 0);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param index
+	 * @param cache - Cache of search results to use, or null to always search
+	 * @param limit - The most results to keep for each query, or 0 to keep them all
+	 */
+	public ResultFinder(SearchableIndex index, QueryCache cache, int limit) {
 		this.index = index;
+		this.cache = cache;
+		this.limit = limit;
 		this.queryMap = new TreeMap<String, List<SearchResult>>();
 	}
 
@@ -53,6 +81,9 @@ public class ResultFinder implements ResultFinderInterface {
 			}
 
 		}
+		if (cache != null) {
+			log.debug("Query cache: {}", cache);
+		}
 	}
 
 	/**
@@ -63,17 +94,37 @@ public class ResultFinder implements ResultFinderInterface {
 	 * @param exact whether or not we are using exact search
 	 */
 	private void addQuery(String line, boolean exact) {
-		Stemmer stemmer = new SnowballStemmer(SnowballStemmer.ALGORITHM.ENGLISH);
-		TreeSet<String> words = TextFileStemmer.stemLineStream(line, stemmer)
-				.collect(Collectors.toCollection(TreeSet::new));
+		TreeSet<String> words;
+		Stemmer stemmer = TextFileStemmer.takeStemmer();
+		try {
+			words = TextFileStemmer.stemLineStream(line, stemmer).collect(Collectors.toCollection(TreeSet::new));
+		} finally {
+			TextFileStemmer.releaseStemmer(stemmer);
+		}
 		if (!words.isEmpty()) {
 			String query = String.join(" ", words);
 			if (!queryMap.containsKey(query)) {
-				queryMap.put(query, index.search(words, exact));
+				queryMap.put(query, search(words, query, exact));
 			}
 		}
 	}
 
+	/**
+	 * Searches the index, or the cache if there is one, keeping only the best
+	 * results if there is a limit.
+	 * 
+	 * @param words - the cleaned and stemmed words to search for
+	 * @param query - the words joined into a single string
+	 * @param exact - whether or not we are using exact search
+	 * @return sorted list of search results
+	 */
+	private List<SearchResult> search(TreeSet<String> words, String query, boolean exact) {
+		if (cache != null) {
+			return cache.search(index, words, query, exact, limit);
+		}
+		return limit > 0 ? index.search(words, exact, limit) : index.search(words, exact);
+	}
+
 	/**
 	 * Writes mapping of queries to search results to .json format
 	 * 
@@ -0,0 +1,210 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A read/write lock for read-mostly data, where readers do not share any state
+ * with each other. Each reader announces itself in one of several counters
+ * chosen by its thread, and each counter sits on its own cache line, so readers
+ * on different cores never write to the same memory. A writer announces itself
+ * and then waits for every counter to drain.
+ *
+ * Readers that find a writer waiting step back and queue behind it, so writers
+ * are never starved by a steady stream of readers. Waiting threads are woken one
+ * at a time by the writers' queue, and a writer waiting for readers to finish is
+ * woken only by the last of them, rather than every waiter being woken on every
+ * unlock.
+ *
+ * Like {@link SimpleReadWriteLock}, the write lock is reentrant, the thread
+ * holding it may also take the read lock, and a thread may take the read lock
+ * more than once. A thread holding only the read lock must not take the write
+ * lock.
+ *
+ * @see SimpleReadWriteLock
+ * @author Ryan Dielhenn
+ */
+public class ScalableReadWriteLock extends SimpleReadWriteLock {
+
+	/** The number of longs between two counters, so each is on its own cache line. */
+	private static final int PADDING = 16;
+
+	/** The lock used for reading. */
+	private final SimpleLock readerLock;
+
+	/** The lock used for writing. */
+	private final SimpleLock writerLock;
+
+	/** The number of active readers in each counter, padded apart. */
+	private final AtomicLongArray readers;
+
+	/** One less than the number of counters, which is a power of two. */
+	private final int mask;
+
+	/** Held by the active writer, and queues the writers and readers waiting for it. */
+	private final ReentrantLock writers;
+
+	/** The thread holding the write lock, or null if there is none. */
+	private volatile Thread writer;
+
+	/** The number of times the writer has taken the write lock. */
+	private int holds;
+
+	/** The number of read locks each thread holds. */
+	private final ThreadLocal<int[]> reads;
+
+	/**
+	 * Initializes a lock with two counters per available processor.
+	 */
+	public ScalableReadWriteLock() {
+		this(2 * Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Initializes a lock.
+	 *
+	 * @param counters the number of reader counters, rounded up to a power of two
+	 */
+	public ScalableReadWriteLock(int counters) {
+		super();
+		int size = Integer.highestOneBit(Math.max(1, counters - 1)) << 1;
+		this.readers = new AtomicLongArray(size * PADDING);
+		this.mask = size - 1;
+		this.writers = new ReentrantLock();
+		this.writer = null;
+		this.holds = 0;
+		this.reads = ThreadLocal.withInitial(() -> new int[1]);
+		this.readerLock = new ReadLock();
+		this.writerLock = new WriteLock();
+	}
+
+	@Override
+	public SimpleLock readLock() {
+		return readerLock;
+	}
+
+	@Override
+	public SimpleLock writeLock() {
+		return writerLock;
+	}
+
+	/**
+	 * Returns the position of the current thread's counter in {@link #readers}.
+	 *
+	 * @return the index of the counter
+	 */
+	private int counter() {
+		long id = Thread.currentThread().getId();
+		int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+		return ((hash >>> 16) & mask) * PADDING;
+	}
+
+	/**
+	 * Tests whether any reader holds the lock.
+	 *
+	 * @return true if any counter is not zero
+	 */
+	private boolean reading() {
+		for (int i = 0; i < readers.length(); i += PADDING) {
+			if (readers.get(i) != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Used to maintain simultaneous read operations.
+	 */
+	private class ReadLock implements SimpleLock {
+
+		/**
+		 * Increases the current thread's counter, unless a writer holds or is waiting
+		 * for the lock, in which case the reader waits in the writers' queue and tries
+		 * again. Does not wait if the thread already holds the read lock or is the
+		 * writer.
+		 */
+		@Override
+		public void lock() {
+			int[] held = reads.get();
+			int counter = counter();
+			while (true) {
+				readers.incrementAndGet(counter);
+				Thread active = writer;
+				if (active == null || active == Thread.currentThread() || held[0] > 0) {
+					held[0]++;
+					return;
+				}
+
+				/* Step back so the writer can finish, and wait for it in line */
+				release(counter);
+				writers.lock();
+				writers.unlock();
+			}
+		}
+
+		/**
+		 * Decreases the current thread's counter, waking a waiting writer if this
+		 * was the last reader.
+		 */
+		@Override
+		public void unlock() {
+			int[] held = reads.get();
+			assert held[0] > 0;
+			held[0]--;
+			release(counter());
+		}
+
+		/**
+		 * Decreases a counter, waking a waiting writer if no readers are left.
+		 *
+		 * @param counter the index of the counter
+		 */
+		private void release(int counter) {
+			readers.decrementAndGet(counter);
+			Thread active = writer;
+			if (active != null && active != Thread.currentThread() && !reading()) {
+				LockSupport.unpark(active);
+			}
+		}
+	}
+
+	/**
+	 * Used to maintain exclusive write operations.
+	 */
+	private class WriteLock implements SimpleLock {
+
+		/**
+		 * Waits behind any other writer, announces the current thread as the writer,
+		 * and then waits until every reader has left. Does not wait if the current
+		 * thread already holds the write lock.
+		 */
+		@Override
+		public void lock() {
+			writers.lock();
+			if (writer == Thread.currentThread()) {
+				holds++;
+				writers.unlock();
+				return;
+			}
+
+			writer = Thread.currentThread();
+			holds = 1;
+			while (reading()) {
+				LockSupport.park(this);
+			}
+		}
+
+		/**
+		 * Releases the write lock once it has been unlocked as many times as it was
+		 * locked, letting the next waiting thread in.
+		 */
+		@Override
+		public void unlock() {
+			assert writer == Thread.currentThread();
+			if (--holds == 0) {
+				writer = null;
+				writers.unlock();
+			}
+		}
+	}
+}
@@ -1,3 +1,8 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.PriorityQueue;
+
 /**
  * A class to represent a search result
  * 
@@ -97,4 +102,34 @@ public class SearchResult implements Comparable<SearchResult> {
 		}
 		return this.score < result.getScore() ? 1 : -1;
 	}
+
+	/**
+	 * Returns the best search results in sorted order, keeping no more than k of
+	 * them in a heap instead of sorting them all.
+	 * 
+	 * @param results the results to choose from
+	 * @param k       the most results to return
+	 * @return sorted list of the best k results
+	 */
+	public static ArrayList<SearchResult> top(Collection<SearchResult> results, int k) {
+		if (k <= 0) {
+			return new ArrayList<SearchResult>();
+		}
+
+		/* The worst of the best results found so far is kept at the head */
+		PriorityQueue<SearchResult> best = new PriorityQueue<SearchResult>(Math.min(k, Math.max(1, results.size())),
+				Collections.reverseOrder());
+		for (SearchResult result : results) {
+			if (best.size() < k) {
+				best.add(result);
+			} else if (result.compareTo(best.peek()) < 0) {
+				best.poll();
+				best.add(result);
+			}
+		}
+
+		ArrayList<SearchResult> sorted = new ArrayList<SearchResult>(best);
+		Collections.sort(sorted);
+		return sorted;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,92 @@
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * An interface for the search surface shared by {@link InvertedIndex} and
+ * {@link FrozenIndex}
+ * 
+ * @author Ryan Dielhenn
+ */
+public interface SearchableIndex {
+
+	/**
+	 * Returns the number of locations stored in the index for a given word.
+	 * 
+	 * @param word - word to look for
+	 * @return number of locations the word was found in
+	 */
+	public int numFiles(String word);
+
+	/**
+	 * Returns the number of positions stored in the index given a word and
+	 * locations.
+	 *
+	 * @param word     - word to look for
+	 * @param location - location to look for
+	 * @return number of times the word appears in a given location
+	 */
+	public int numPositions(String word, String location);
+
+	/**
+	 * Tests whether the index contains the specified word.
+	 *
+	 * @param word - word to look for
+	 * @return true if the word is stored in the index
+	 */
+	public boolean contains(String word);
+
+	/**
+	 * Tests whether the index contains the specified word in the specified
+	 * location.
+	 *
+	 * @param word - word to look for
+	 * @param file - location to look for word
+	 * @return true if the word is stored in the index for that location
+	 */
+	public boolean contains(String word, String file);
+
+	/**
+	 * Returns a number that changes whenever the contents of the index change.
+	 * Results found while the generation stays the same remain valid.
+	 * 
+	 * @return the generation of the index
+	 */
+	public long generation();
+
+	/**
+	 * Performs either an exact or partial search
+	 * 
+	 * @param queries - queries to search for
+	 * @param exact   - exact or partial search
+	 * @return sorted list of search results
+	 */
+	public List<SearchResult> search(Collection<String> queries, boolean exact);
+
+	/**
+	 * Performs either an exact or partial search, returning only the best results
+	 * 
+	 * @param queries - queries to search for
+	 * @param exact   - exact or partial search
+	 * @param k       - the most results to return
+	 * @return sorted list of the best k search results
+	 */
+	public default List<SearchResult> search(Collection<String> queries, boolean exact, int k) {
+		return SearchResult.top(search(queries, exact), k);
+	}
+
+	/**
+	 * Searches for words in the index that match the queries exactly
+	 * 
+	 * @param queries - queries to search for
+	 * @return sorted list of search results
+	 */
+	public List<SearchResult> exactSearch(Collection<String> queries);
+
+	/**
+	 * Searches for words in the index that start with a given query
+	 * 
+	 * @param queries - queries to search for
+	 * @return sorted list of search results
+	 */
+	public List<SearchResult> partialSearch(Collection<String> queries);
+}
@@ -0,0 +1,775 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ToIntFunction;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A thread safe InvertedIndex made of immutable segments. Local indexes added
+ * with {@link #addAll(InvertedIndex)} are published as new segments without
+ * taking the write lock, so workers building separate files never wait for each
+ * other. Segments are merged in the background by the work queue: whenever
+ * {@link #MERGE_FACTOR} segments of the same size tier exist, they are combined
+ * into one segment of the next tier.
+ *
+ * The segments are published together as a {@link Snapshot}, which is replaced
+ * atomically whenever the index changes. Searches and counts read the current
+ * snapshot without locking, so they never wait for writers and always see a
+ * consistent version of the index. Writers that remove or replace locations
+ * build the next snapshot from copies and hold the write lock only to exclude
+ * each other. Operations that need every word in one place, such as writing
+ * the index, first fold all segments into a single segment.
+ *
+ * The storage inherited from {@link ThreadSafeIndex} is not used.
+ *
+ * @author Ryan Dielhenn
+ */
+public class SegmentedIndex extends ThreadSafeIndex {
+
+	/** Logger to use for this class. */
+	private static final Logger log = LogManager.getLogger();
+
+	/** The number of segments of one tier that are merged into the next tier. */
+	public static final int MERGE_FACTOR = 4;
+
+	/** Segments with fewer positions than this are all in the first tier. */
+	private static final long TIER_SIZE = 4096;
+
+	/** The current version of the index. */
+	private final AtomicReference<Snapshot> current;
+
+	/** Segments currently being merged in the background. */
+	private final HashSet<InvertedIndex> merging;
+
+	/** Work queue used to merge segments in the background */
+	private final WorkQueue workers;
+
+	/** Prefixes shorter than this are aggregated in new segments, or 0 if none are. */
+	private volatile int aggregateLength;
+
+	/** Prefixes matching at least this many words are aggregated in new segments. */
+	private volatile int aggregateFanOut;
+
+	/**
+	 * Constructor
+	 *
+	 * @param workers - Work queue used to merge segments in the background
+	 */
+	public SegmentedIndex(WorkQueue workers) {
+		super();
+		this.current = new AtomicReference<Snapshot>(new Snapshot(0, Collections.emptyList()));
+		this.merging = new HashSet<InvertedIndex>();
+		this.workers = workers;
+		this.aggregateLength = 0;
+		this.aggregateFanOut = 0;
+	}
+
+	/**
+	 * Returns the current version of the index. The snapshot never changes, so
+	 * several searches can be run against the same version while the index keeps
+	 * changing.
+	 *
+	 * @return the current snapshot
+	 */
+	public Snapshot snapshot() {
+		return current.get();
+	}
+
+	/**
+	 * Publishes a new segment without taking the write lock.
+	 *
+	 * @param segment - The segment to publish
+	 */
+	private void publish(InvertedIndex segment) {
+		aggregate(segment);
+		Snapshot version;
+		do {
+			version = current.get();
+		} while (!current.compareAndSet(version, version.with(segment)));
+
+		scheduleMerges();
+	}
+
+	/**
+	 * Publishes a thread's local index as a new segment without taking the write
+	 * lock. The local index must not be changed after it is added.
+	 *
+	 * @param local - The thread's local index to add
+	 * @see InvertedIndex#addAll(InvertedIndex)
+	 */
+	@Override
+	public void addAll(InvertedIndex local) {
+		publish(local);
+	}
+
+	/**
+	 * Publishes the word as a segment of its own, so words should be added in
+	 * bulk with {@link #addAll(InvertedIndex)} instead.
+	 *
+	 * @see InvertedIndex#add(String, String, int)
+	 */
+	@Override
+	public boolean add(String word, String location, int position) {
+		InvertedIndex local = new InvertedIndex();
+		local.add(word, location, position);
+		publish(local);
+		return true;
+	}
+
+	/**
+	 * Publishes the words as a new segment.
+	 *
+	 * @see InvertedIndex#addAll(List, String, int)
+	 */
+	@Override
+	public boolean addAll(List<String> words, String location, int start) {
+		InvertedIndex local = new InvertedIndex();
+		if (local.addAll(words, location, start)) {
+			publish(local);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the size tier of a segment. Each tier holds segments about
+	 * {@link #MERGE_FACTOR} times larger than the tier before it.
+	 *
+	 * @param segment - The segment
+	 * @return the tier of the segment
+	 */
+	private static int tier(InvertedIndex segment) {
+		int tier = 0;
+		for (long size = segment.size() / TIER_SIZE; size > 0; size /= MERGE_FACTOR) {
+			tier++;
+		}
+		return tier;
+	}
+
+	/**
+	 * Hands a merge to the work queue for every tier that has collected enough
+	 * segments that are not already being merged. The merges are handed over
+	 * after the set of segments being merged is unlocked, since a full work queue
+	 * makes this wait for a merge to finish, and finishing a merge needs that set.
+	 */
+	private void scheduleMerges() {
+		ArrayList<List<InvertedIndex>> batches = new ArrayList<List<InvertedIndex>>();
+		synchronized (merging) {
+			HashMap<Integer, List<InvertedIndex>> tiers = new HashMap<Integer, List<InvertedIndex>>();
+			for (InvertedIndex segment : current.get().segments) {
+				if (merging.contains(segment)) {
+					continue;
+				}
+				List<InvertedIndex> tier = tiers.computeIfAbsent(tier(segment), t -> new ArrayList<InvertedIndex>());
+				tier.add(segment);
+				if (tier.size() == MERGE_FACTOR) {
+					merging.addAll(tier);
+					batches.add(new ArrayList<InvertedIndex>(tier));
+					tier.clear();
+				}
+			}
+		}
+
+		for (List<InvertedIndex> batch : batches) {
+			workers.execute(new MergeTask(batch));
+		}
+	}
+
+	/**
+	 * Turns on prefix aggregates in every segment published from now on, each of
+	 * which is searched for prefixes on its own. Segments already published are
+	 * not changed, so this should be called before the index is built.
+	 *
+	 * @see InvertedIndex#aggregatePrefixes(int, int)
+	 */
+	@Override
+	public void aggregatePrefixes(int length, int fanOut) {
+		this.aggregateFanOut = fanOut;
+		this.aggregateLength = length;
+	}
+
+	/**
+	 * Turns on prefix aggregates in a segment that is about to be published, if
+	 * they have been turned on for this index.
+	 *
+	 * @param segment - The segment to publish
+	 */
+	private void aggregate(InvertedIndex segment) {
+		int length = aggregateLength;
+		if (length > 0) {
+			segment.aggregatePrefixes(length, aggregateFanOut);
+		}
+	}
+
+	/**
+	 * Replaces merged segments with the segment they were merged into. Nothing is
+	 * replaced if any of the segments was replaced or folded in the meantime.
+	 *
+	 * @param merged - The segments that were merged
+	 * @param result - The segment they were merged into
+	 * @return true if the segments were replaced
+	 */
+	private boolean replace(List<InvertedIndex> merged, InvertedIndex result) {
+		aggregate(result);
+		Snapshot version;
+		do {
+			version = current.get();
+			if (!version.segments.containsAll(merged)) {
+				return false;
+			}
+		} while (!current.compareAndSet(version, version.replace(merged, result)));
+		return true;
+	}
+
+	/**
+	 * Folds every segment into a single segment, leaving out removed locations.
+	 * Called before operations that need all words and locations in one place.
+	 *
+	 * @return a snapshot with at most one segment
+	 */
+	private Snapshot fold() {
+		lock.writeLock().lock();
+		try {
+			while (true) {
+				Snapshot version = current.get();
+				if (version.segments.size() <= 1 && !version.needsCompaction()) {
+					return version;
+				}
+
+				InvertedIndex folded = new InvertedIndex();
+				for (InvertedIndex segment : version.segments) {
+					folded.addAll(segment);
+				}
+				if (replace(version.segments, folded)) {
+					return current.get();
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Publishes a snapshot without some locations. Only the segments that contain
+	 * them are copied, and the copies share their words and postings with the
+	 * originals.
+	 *
+	 * @param removed     - The locations to remove
+	 * @param replacement - A segment to publish in the same snapshot, or null
+	 * @return true if any location was removed
+	 */
+	private boolean remove(Collection<String> removed, InvertedIndex replacement) {
+		lock.writeLock().lock();
+		try {
+			Snapshot version;
+			Snapshot next;
+			boolean changed;
+			do {
+				version = current.get();
+				ArrayList<InvertedIndex> segments = new ArrayList<InvertedIndex>(version.segments.size() + 1);
+				changed = false;
+				for (InvertedIndex segment : version.segments) {
+					InvertedIndex copy = segment.withoutLocations(removed);
+					if (copy.size() != segment.size()) {
+						segment = copy;
+						changed = true;
+					}
+					segments.add(segment);
+				}
+				if (replacement != null) {
+					segments.add(replacement);
+				}
+				next = new Snapshot(version.generation + 1, segments);
+			} while (!current.compareAndSet(version, next));
+			return changed;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @see InvertedIndex#removeLocation(String)
+	 */
+	@Override
+	public boolean removeLocation(String location) {
+		return remove(Collections.singletonList(location), null);
+	}
+
+	/**
+	 * @see InvertedIndex#removeLocations(Collection)
+	 */
+	@Override
+	public boolean removeLocations(Collection<String> removed) {
+		return remove(removed, null);
+	}
+
+	/**
+	 * Publishes the replacement in the same snapshot that removes the old
+	 * location, so searches see either the old or the new contents of the
+	 * location but never neither.
+	 *
+	 * @see InvertedIndex#replaceLocation(String, InvertedIndex)
+	 */
+	@Override
+	public void replaceLocation(String location, InvertedIndex replacement) {
+		remove(Collections.singletonList(location), replacement);
+		scheduleMerges();
+	}
+
+	/**
+	 * @see InvertedIndex#needsCompaction()
+	 */
+	@Override
+	public boolean needsCompaction() {
+		return current.get().needsCompaction();
+	}
+
+	/**
+	 * Folds every segment into one, which leaves out removed locations.
+	 *
+	 * @see InvertedIndex#compact()
+	 */
+	@Override
+	public void compact() {
+		fold();
+	}
+
+	/**
+	 * Adds the snapshot as a new segment. Its postings are still read the first
+	 * time a word is used.
+	 *
+	 * @see InvertedIndex#readSnapshot(Path)
+	 */
+	@Override
+	public void readSnapshot(Path inputFile) throws IOException {
+		InvertedIndex loaded = new InvertedIndex();
+		loaded.readSnapshot(inputFile);
+		publish(loaded);
+	}
+
+	/**
+	 * Returns a single index of every segment, folding the segments first if
+	 * necessary.
+	 *
+	 * @return an index of every word and location
+	 */
+	private InvertedIndex folded() {
+		List<InvertedIndex> segments = fold().segments;
+		return segments.isEmpty() ? new InvertedIndex() : segments.get(0);
+	}
+
+	/**
+	 * @see InvertedIndex#writeIndex(Path)
+	 */
+	@Override
+	public void writeIndex(Path outputFile) throws IOException {
+		folded().writeIndex(outputFile);
+	}
+
+	/**
+	 * @see InvertedIndex#writeLocations(Path)
+	 */
+	@Override
+	public void writeLocations(Path outputFile) throws IOException {
+		folded().writeLocations(outputFile);
+	}
+
+	/**
+	 * @see InvertedIndex#wordCounts()
+	 */
+	@Override
+	public TreeMap<String, Integer> wordCounts() {
+		return folded().wordCounts();
+	}
+
+	/**
+	 * @see InvertedIndex#partition(int, ToIntFunction)
+	 */
+	@Override
+	public InvertedIndex[] partition(int parts, ToIntFunction<String> part) {
+		return folded().partition(parts, part);
+	}
+
+	/**
+	 * @see InvertedIndex#writeSnapshot(Path)
+	 */
+	@Override
+	public void writeSnapshot(Path outputFile) throws IOException {
+		folded().writeSnapshot(outputFile);
+	}
+
+	/**
+	 * @see InvertedIndex#numWords()
+	 */
+	@Override
+	public int numWords() {
+		return folded().numWords();
+	}
+
+	/**
+	 * @see InvertedIndex#toString()
+	 */
+	@Override
+	public String toString() {
+		return folded().toString();
+	}
+
+	/**
+	 * @see InvertedIndex#generation()
+	 */
+	@Override
+	public long generation() {
+		return current.get().generation();
+	}
+
+	/**
+	 * @see InvertedIndex#size()
+	 */
+	@Override
+	public long size() {
+		return current.get().size();
+	}
+
+	/**
+	 * @see InvertedIndex#empty()
+	 */
+	@Override
+	public boolean empty() {
+		return current.get().empty();
+	}
+
+	/**
+	 * @see InvertedIndex#numFiles(String)
+	 */
+	@Override
+	public int numFiles(String word) {
+		return current.get().numFiles(word);
+	}
+
+	/**
+	 * @see InvertedIndex#numPositions(String, String)
+	 */
+	@Override
+	public int numPositions(String word, String location) {
+		return current.get().numPositions(word, location);
+	}
+
+	/**
+	 * @see InvertedIndex#contains(String)
+	 */
+	@Override
+	public boolean contains(String word) {
+		return current.get().contains(word);
+	}
+
+	/**
+	 * @see InvertedIndex#contains(String, String)
+	 */
+	@Override
+	public boolean contains(String word, String file) {
+		return current.get().contains(word, file);
+	}
+
+	/**
+	 * @see InvertedIndex#exactSearch(Collection)
+	 */
+	@Override
+	public ArrayList<SearchResult> exactSearch(Collection<String> line) {
+		return current.get().exactSearch(line);
+	}
+
+	/**
+	 * @see InvertedIndex#partialSearch(Collection)
+	 */
+	@Override
+	public ArrayList<SearchResult> partialSearch(Collection<String> queries) {
+		return current.get().partialSearch(queries);
+	}
+
+	/**
+	 * @see InvertedIndex#search(Collection, boolean, int)
+	 */
+	@Override
+	public ArrayList<SearchResult> search(Collection<String> queries, boolean exact, int k) {
+		return current.get().search(queries, exact, k);
+	}
+
+	/**
+	 * One version of a segmented index. A snapshot and its segments never change,
+	 * so it can be searched by any number of threads without locking.
+	 */
+	public static class Snapshot implements SearchableIndex {
+
+		/** The version of the index this snapshot holds. */
+		private final long generation;
+
+		/** The segments, which are never changed. */
+		private final List<InvertedIndex> segments;
+
+		/**
+		 * The number of words in each location across every segment, computed the
+		 * first time it is needed, or null if it has not been computed yet.
+		 */
+		private volatile HashMap<String, Integer> wordCounts;
+
+		/**
+		 * Constructor
+		 *
+		 * @param generation - The version of the index
+		 * @param segments   - The segments, which must never change
+		 */
+		private Snapshot(long generation, List<InvertedIndex> segments) {
+			this.generation = generation;
+			this.segments = Collections.unmodifiableList(segments);
+			this.wordCounts = null;
+		}
+
+		/**
+		 * Returns the next version with a segment added.
+		 *
+		 * @param segment - The segment to add
+		 * @return the next snapshot
+		 */
+		private Snapshot with(InvertedIndex segment) {
+			ArrayList<InvertedIndex> next = new ArrayList<InvertedIndex>(segments.size() + 1);
+			next.addAll(segments);
+			next.add(segment);
+			return new Snapshot(generation + 1, next);
+		}
+
+		/**
+		 * Returns the next version with some segments replaced by the segment they
+		 * were merged into. The contents of the index do not change, so neither does
+		 * the generation.
+		 *
+		 * @param merged - The segments that were merged
+		 * @param result - The segment they were merged into
+		 * @return the next snapshot
+		 */
+		private Snapshot replace(List<InvertedIndex> merged, InvertedIndex result) {
+			ArrayList<InvertedIndex> next = new ArrayList<InvertedIndex>(segments.size());
+			for (InvertedIndex segment : segments) {
+				if (!merged.contains(segment)) {
+					next.add(segment);
+				}
+			}
+			next.add(result);
+			return new Snapshot(generation, next);
+		}
+
+		/**
+		 * Tests whether any segment holds removed locations worth compacting.
+		 *
+		 * @return true if a segment needs compaction
+		 */
+		private boolean needsCompaction() {
+			for (InvertedIndex segment : segments) {
+				if (segment.needsCompaction()) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public long generation() {
+			return generation;
+		}
+
+		/**
+		 * Returns the number of positions stored in this snapshot.
+		 *
+		 * @return number of positions
+		 */
+		public long size() {
+			long size = 0;
+			for (InvertedIndex segment : segments) {
+				size += segment.size();
+			}
+			return size;
+		}
+
+		/**
+		 * Returns true if this snapshot is empty
+		 *
+		 * @return true if empty
+		 */
+		public boolean empty() {
+			for (InvertedIndex segment : segments) {
+				if (!segment.empty()) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Counts each location once, even if the word was found in it in several
+		 * segments.
+		 */
+		@Override
+		public int numFiles(String word) {
+			if (segments.size() == 1) {
+				return segments.get(0).numFiles(word);
+			}
+			HashSet<String> files = new HashSet<String>();
+			for (InvertedIndex segment : segments) {
+				segment.collectLocations(word, files);
+			}
+			return files.size();
+		}
+
+		@Override
+		public int numPositions(String word, String location) {
+			int positions = 0;
+			for (InvertedIndex segment : segments) {
+				positions += segment.numPositions(word, location);
+			}
+			return positions;
+		}
+
+		@Override
+		public boolean contains(String word) {
+			for (InvertedIndex segment : segments) {
+				if (segment.contains(word)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public boolean contains(String word, String file) {
+			for (InvertedIndex segment : segments) {
+				if (segment.contains(word, file)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public ArrayList<SearchResult> search(Collection<String> queries, boolean exact) {
+			ArrayList<SearchResult> results = results(queries, exact);
+			Collections.sort(results);
+			return results;
+		}
+
+		@Override
+		public ArrayList<SearchResult> search(Collection<String> queries, boolean exact, int k) {
+			return SearchResult.top(results(queries, exact), k);
+		}
+
+		/**
+		 * Searches every segment and scores the combined results by the total number
+		 * of words in each location, since a location can be split across several
+		 * segments and each segment only knows the words it stores.
+		 *
+		 * @param queries - queries to search for
+		 * @param exact   - exact or partial search
+		 * @return unsorted list of search results
+		 */
+		private ArrayList<SearchResult> results(Collection<String> queries, boolean exact) {
+			HashMap<String, SearchResult> found = new HashMap<String, SearchResult>();
+			for (InvertedIndex segment : segments) {
+				segment.collect(queries, exact, found);
+			}
+			if (segments.size() <= 1) {
+				return new ArrayList<SearchResult>(found.values());
+			}
+
+			HashMap<String, Integer> counts = wordCounts();
+			ArrayList<SearchResult> results = new ArrayList<SearchResult>(found.size());
+			for (SearchResult result : found.values()) {
+				Integer words = counts.get(result.getLocation());
+				int count = words == null ? result.getWordCount() : words;
+				results.add(new SearchResult(result.getLocation(), result.getQueryCount(), count));
+			}
+			return results;
+		}
+
+		/**
+		 * Returns the number of words in each location across every segment. The
+		 * counts are computed once per snapshot; threads that need them at the same
+		 * time may each compute them, with the same result.
+		 *
+		 * @return a mapping of locations to their number of words
+		 */
+		private HashMap<String, Integer> wordCounts() {
+			HashMap<String, Integer> counts = wordCounts;
+			if (counts == null) {
+				counts = new HashMap<String, Integer>();
+				for (InvertedIndex segment : segments) {
+					for (Entry<String, Integer> entry : segment.wordCounts().entrySet()) {
+						counts.merge(entry.getKey(), entry.getValue(), Integer::sum);
+					}
+				}
+				wordCounts = counts;
+			}
+			return counts;
+		}
+
+		@Override
+		public ArrayList<SearchResult> exactSearch(Collection<String> queries) {
+			return search(queries, true);
+		}
+
+		@Override
+		public ArrayList<SearchResult> partialSearch(Collection<String> queries) {
+			return search(queries, false);
+		}
+	}
+
+	/**
+	 * Merges segments of one tier into a single segment
+	 */
+	private class MergeTask implements Runnable {
+
+		/**
+		 * The segments to merge
+		 */
+		private final List<InvertedIndex> batch;
+
+		/**
+		 * Constructor
+		 *
+		 * @param batch - The segments to merge
+		 */
+		public MergeTask(List<InvertedIndex> batch) {
+			this.batch = batch;
+		}
+
+		/**
+		 * Merges the segments into a new segment and publishes it in their place.
+		 * Removed locations are left out of the merged segment.
+		 */
+		@Override
+		public void run() {
+			try {
+				InvertedIndex merged = new InvertedIndex();
+				for (InvertedIndex segment : batch) {
+					merged.addAll(segment);
+				}
+
+				if (replace(batch, merged)) {
+					log.debug("Merged {} segments into one of {} positions.", batch.size(), merged.size());
+				}
+			} finally {
+				synchronized (merging) {
+					merging.removeAll(batch);
+				}
+			}
+			scheduleMerges();
+		}
+	}
+}
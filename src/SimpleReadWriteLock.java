@@ -9,6 +9,10 @@ import org.apache.logging.log4j.Logger;
  * for writing. The read lock may be held simultaneously by multiple reader
  * threads, so long as there are no writers. The write lock is exclusive.
  *
+ * The thread holding the write lock may lock the write lock again, and may also
+ * lock the read lock, as long as it unlocks each lock as many times as it locked
+ * it.
+ *
  * @see SimpleLock
  *
  * @see Lock
@@ -31,6 +35,9 @@ public class SimpleReadWriteLock {
 	/** The number of active writers; */
 	private int writers;
 
+	/** The thread holding the write lock, or null if there is none. */
+	private Thread writer;
+
 	/** The logger to use */
 	public static final Logger log = LogManager.getLogger(SimpleReadWriteLock.class);
 
@@ -44,6 +51,7 @@ public class SimpleReadWriteLock {
 
 		readers = 0;
 		writers = 0;
+		writer = null;
 	}
 
 	/**
@@ -71,12 +79,13 @@ public class SimpleReadWriteLock {
 
 		/**
 		 * Will wait until there are no active writers in the system, and then will
-		 * increase the number of active readers.
+		 * increase the number of active readers. Does not wait if the active writer is
+		 * the current thread.
 		 */
 		@Override
 		public void lock() {
 			synchronized (lock) {
-				while (writers > 0) {
+				while (writers > 0 && writer != Thread.currentThread()) {
 					try {
 						lock.wait();
 					} catch (InterruptedException e) {
@@ -111,11 +120,16 @@ public class SimpleReadWriteLock {
 
 		/**
 		 * Will wait until there are no active readers or writers in the system, and
-		 * then will increase the number of active writers.
+		 * then will increase the number of active writers. Does not wait if the active
+		 * writer is the current thread.
 		 */
 		@Override
 		public void lock() {
 			synchronized (lock) {
+				if (writer == Thread.currentThread()) {
+					writers++;
+					return;
+				}
 				while (writers > 0 || readers > 0) {
 					try {
 						lock.wait();
@@ -124,6 +138,7 @@ public class SimpleReadWriteLock {
 					}
 				}
 				writers++;
+				writer = Thread.currentThread();
 			}
 		}
 
@@ -135,8 +150,11 @@ public class SimpleReadWriteLock {
 		public void unlock() {
 			synchronized (lock) {
 				writers--;
-				lock.notifyAll();
-				assert writers == 0;
+				if (writers == 0) {
+					writer = null;
+					lock.notifyAll();
+				}
+				assert writers >= 0;
 			}
 		}
 	}
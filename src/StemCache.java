@@ -0,0 +1,155 @@
+import java.util.concurrent.atomic.LongAdder;
+
+import opennlp.tools.stemmer.Stemmer;
+
+/**
+ * A bounded cache of words and their stems, shared by every thread. Text
+ * follows a steep power law, so a few thousand words make up most of what is
+ * stemmed, and looking them up here saves both the stemming and the string it
+ * would allocate.
+ *
+ * The cache is direct-mapped: each word can only be stored in the one slot its
+ * hash picks, and a new word simply replaces whatever was there. Entries are
+ * immutable, so threads read and replace slots without any locking; at worst a
+ * thread misses an entry another thread has just stored and stems the word
+ * again.
+ *
+ * @author Ryan Dielhenn
+ */
+public class StemCache {
+
+	/** The cache shared by everything that stems English words. */
+	public static final StemCache SHARED = new StemCache(64 * 1024);
+
+	/** The cached entries, where each word can only be stored in one slot. */
+	private final Entry[] entries;
+
+	/** One less than the number of slots, which is a power of two. */
+	private final int mask;
+
+	/** The number of words found in the cache. */
+	private final LongAdder hits;
+
+	/** The number of words that had to be stemmed. */
+	private final LongAdder misses;
+
+	/**
+	 * Initializes an empty cache.
+	 *
+	 * @param size the number of words to hold, rounded up to a power of two
+	 */
+	public StemCache(int size) {
+		int slots = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+		this.entries = new Entry[slots];
+		this.mask = slots - 1;
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+	}
+
+	/**
+	 * Returns the stem of a word, stemming and caching it if it is not cached.
+	 * The word is only copied when it is added to the cache, so it may be a buffer
+	 * that the caller reuses.
+	 *
+	 * @param word    the word to stem
+	 * @param stemmer the stemmer to use on a miss, which must only be used by the
+	 *                current thread
+	 * @return the stem of the word
+	 */
+	public String stem(CharSequence word, Stemmer stemmer) {
+		int hash = hash(word);
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		Entry entry = entries[slot];
+		if (entry != null && entry.hash == hash && entry.matches(word)) {
+			hits.increment();
+			return entry.stem;
+		}
+
+		misses.increment();
+		String stem = stemmer.stem(word).toString();
+		entries[slot] = new Entry(word.toString(), stem, hash);
+		return stem;
+	}
+
+	/**
+	 * Returns the number of words found in the cache.
+	 *
+	 * @return number of hits
+	 */
+	public long hits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of words that were not found in the cache.
+	 *
+	 * @return number of misses
+	 */
+	public long misses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns a summary of how well the cache is working.
+	 */
+	@Override
+	public String toString() {
+		long hit = hits();
+		long total = hit + misses();
+		return String.format("%d hits, %d misses (%.1f%% hit ratio)", hit, total - hit,
+				total == 0 ? 0.0 : 100.0 * hit / total);
+	}
+
+	/**
+	 * Computes the same hash as {@link String#hashCode()} for any character
+	 * sequence.
+	 *
+	 * @param word the characters to hash
+	 * @return the hash
+	 */
+	private static int hash(CharSequence word) {
+		int hash = 0;
+		for (int i = 0; i < word.length(); i++) {
+			hash = 31 * hash + word.charAt(i);
+		}
+		return hash;
+	}
+
+	/**
+	 * A word and its stem.
+	 */
+	private static class Entry {
+
+		/** The word */
+		private final String word;
+
+		/** The stem of the word */
+		private final String stem;
+
+		/** The hash of the word */
+		private final int hash;
+
+		/**
+		 * Constructor
+		 *
+		 * @param word - The word
+		 * @param stem - The stem of the word
+		 * @param hash - The hash of the word
+		 */
+		public Entry(String word, String stem, int hash) {
+			this.word = word;
+			this.stem = stem;
+			this.hash = hash;
+		}
+
+		/**
+		 * Tests whether this entry is for a word.
+		 *
+		 * @param other the word to compare with
+		 * @return true if the word has the same characters as this entry's word
+		 */
+		public boolean matches(CharSequence other) {
+			return word.contentEquals(other);
+		}
+	}
+}
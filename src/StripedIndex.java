@@ -0,0 +1,653 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+/**
+ * A thread safe InvertedIndex that partitions words across several stripes by
+ * their hash. Each stripe is a separate index with its own lock, so threads
+ * adding or searching different words rarely wait for each other. The number of
+ * words in each location is kept in a lock-free accumulator shared by all
+ * stripes.
+ *
+ * Stripes are always locked in increasing order, so operations that need
+ * several stripes at once, such as searches and location removal, can not
+ * deadlock. The storage inherited from {@link ThreadSafeIndex} is not used.
+ *
+ * @author Ryan Dielhenn
+ */
+public class StripedIndex extends ThreadSafeIndex {
+
+	/** The default number of stripes to use when not specified. */
+	public static final int DEFAULT = 16;
+
+	/** The stripes, each holding the words whose hash selects it. */
+	private final InvertedIndex[] stripes;
+
+	/** The locks of the stripes, indexed by stripe. */
+	private final SimpleReadWriteLock[] locks;
+
+	/** The number of words stored for each location. */
+	private final ConcurrentHashMap<String, LongAdder> counts;
+
+	/**
+	 * Default constructor
+	 */
+	public StripedIndex() {
+		this(DEFAULT);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param stripes - The number of stripes; should be at least 1
+	 */
+	public StripedIndex(int stripes) {
+		super();
+		this.stripes = new InvertedIndex[Math.max(1, stripes)];
+		this.locks = new SimpleReadWriteLock[this.stripes.length];
+		for (int i = 0; i < this.stripes.length; i++) {
+			this.stripes[i] = new InvertedIndex();
+			this.locks[i] = new ScalableReadWriteLock();
+		}
+		this.counts = new ConcurrentHashMap<String, LongAdder>();
+	}
+
+	/**
+	 * Returns the stripe a word is stored in.
+	 *
+	 * @param word - The word
+	 * @return the index of the stripe
+	 */
+	private int stripe(String word) {
+		return Math.floorMod(word.hashCode(), stripes.length);
+	}
+
+	/**
+	 * Adds to the number of words stored for a location.
+	 *
+	 * @param location - The location
+	 * @param words    - The number of words to add
+	 */
+	private void count(String location, int words) {
+		counts.computeIfAbsent(location, l -> new LongAdder()).add(words);
+	}
+
+	/**
+	 * Locks the given stripes in increasing order.
+	 *
+	 * @param touched - Which stripes to lock, indexed by stripe
+	 * @param write   - Whether to take the write locks instead of the read locks
+	 */
+	private void lock(boolean[] touched, boolean write) {
+		for (int i = 0; i < locks.length; i++) {
+			if (touched[i]) {
+				(write ? locks[i].writeLock() : locks[i].readLock()).lock();
+			}
+		}
+	}
+
+	/**
+	 * Unlocks the given stripes.
+	 *
+	 * @param touched - Which stripes to unlock, indexed by stripe
+	 * @param write   - Whether to release the write locks instead of the read
+	 *                locks
+	 */
+	private void unlock(boolean[] touched, boolean write) {
+		for (int i = locks.length - 1; i >= 0; i--) {
+			if (touched[i]) {
+				(write ? locks[i].writeLock() : locks[i].readLock()).unlock();
+			}
+		}
+	}
+
+	/**
+	 * Returns an array selecting every stripe, for use with
+	 * {@link #lock(boolean[], boolean)}.
+	 *
+	 * @return every stripe
+	 */
+	private boolean[] all() {
+		boolean[] all = new boolean[stripes.length];
+		Arrays.fill(all, true);
+		return all;
+	}
+
+	/**
+	 * Combines every stripe into a single index, for operations that need the
+	 * words in sorted order. The stripes must be locked by the caller.
+	 *
+	 * @return an index of every stripe
+	 */
+	private InvertedIndex combine() {
+		InvertedIndex combined = new InvertedIndex();
+		for (InvertedIndex stripe : stripes) {
+			combined.addAll(stripe);
+		}
+		return combined;
+	}
+
+	/**
+	 * Adds the word and position while locking only the word's stripe.
+	 *
+	 * @see InvertedIndex#add(String, String, int)
+	 */
+	@Override
+	public boolean add(String word, String location, int position) {
+		int i = stripe(word);
+		locks[i].writeLock().lock();
+		try {
+			if (stripes[i].add(word, location, position)) {
+				count(location, 1);
+				return true;
+			}
+			return false;
+		} finally {
+			locks[i].writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @see InvertedIndex#addAll(List, String, int)
+	 */
+	@Override
+	public boolean addAll(List<String> words, String location, int start) {
+		boolean changed = false;
+		for (String word : words) {
+			if (this.add(word, location, ++start)) {
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Adds a thread's local index, locking only the stripes its words fall in.
+	 * The word counts are added first, so searches never find a location without
+	 * its word count.
+	 *
+	 * @param local - The thread's local index to add
+	 * @see InvertedIndex#addAll(InvertedIndex)
+	 */
+	@Override
+	public void addAll(InvertedIndex local) {
+		InvertedIndex[] parts = local.partition(stripes.length, this::stripe);
+		boolean[] touched = new boolean[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			touched[i] = !parts[i].empty();
+		}
+
+		for (Entry<String, Integer> entry : local.wordCounts().entrySet()) {
+			count(entry.getKey(), entry.getValue());
+		}
+
+		lock(touched, true);
+		try {
+			for (int i = 0; i < parts.length; i++) {
+				if (touched[i]) {
+					stripes[i].addAll(parts[i]);
+				}
+			}
+		} finally {
+			unlock(touched, true);
+		}
+	}
+
+	/**
+	 * Removes a location from every stripe. Must be called with every stripe
+	 * locked for writing.
+	 *
+	 * @param location - The location to remove
+	 * @return true if this index changed as a result of the call
+	 */
+	private boolean remove(String location) {
+		boolean changed = false;
+		for (InvertedIndex stripe : stripes) {
+			if (stripe.removeLocation(location)) {
+				changed = true;
+			}
+		}
+		counts.remove(location);
+		return changed;
+	}
+
+	/**
+	 * @see InvertedIndex#removeLocation(String)
+	 */
+	@Override
+	public boolean removeLocation(String location) {
+		boolean[] all = all();
+		lock(all, true);
+		try {
+			return remove(location);
+		} finally {
+			unlock(all, true);
+		}
+	}
+
+	/**
+	 * @see InvertedIndex#removeLocations(Collection)
+	 */
+	@Override
+	public boolean removeLocations(Collection<String> removed) {
+		boolean[] all = all();
+		lock(all, true);
+		try {
+			boolean changed = false;
+			for (String location : removed) {
+				if (remove(location)) {
+					changed = true;
+				}
+			}
+			return changed;
+		} finally {
+			unlock(all, true);
+		}
+	}
+
+	/**
+	 * Replaces a location while holding every stripe's write lock, so searches see
+	 * either the old or the new contents of the location but never neither.
+	 *
+	 * @see InvertedIndex#replaceLocation(String, InvertedIndex)
+	 */
+	@Override
+	public void replaceLocation(String location, InvertedIndex replacement) {
+		InvertedIndex[] parts = replacement.partition(stripes.length, this::stripe);
+		boolean[] all = all();
+		lock(all, true);
+		try {
+			remove(location);
+			for (Entry<String, Integer> entry : replacement.wordCounts().entrySet()) {
+				count(entry.getKey(), entry.getValue());
+			}
+			for (int i = 0; i < parts.length; i++) {
+				stripes[i].addAll(parts[i]);
+			}
+		} finally {
+			unlock(all, true);
+		}
+	}
+
+	/**
+	 * @see InvertedIndex#needsCompaction()
+	 */
+	@Override
+	public boolean needsCompaction() {
+		for (int i = 0; i < stripes.length; i++) {
+			locks[i].readLock().lock();
+			try {
+				if (stripes[i].needsCompaction()) {
+					return true;
+				}
+			} finally {
+				locks[i].readLock().unlock();
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Turns on prefix aggregates in every stripe, since each stripe is searched
+	 * for prefixes on its own.
+	 *
+	 * @see InvertedIndex#aggregatePrefixes(int, int)
+	 */
+	@Override
+	public void aggregatePrefixes(int length, int fanOut) {
+		for (int i = 0; i < stripes.length; i++) {
+			locks[i].writeLock().lock();
+			try {
+				stripes[i].aggregatePrefixes(length, fanOut);
+			} finally {
+				locks[i].writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * Compacts one stripe at a time, so only one stripe is unavailable at once.
+	 *
+	 * @see InvertedIndex#compact()
+	 */
+	@Override
+	public void compact() {
+		for (int i = 0; i < stripes.length; i++) {
+			locks[i].writeLock().lock();
+			try {
+				stripes[i].compact();
+			} finally {
+				locks[i].writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * @see InvertedIndex#writeIndex(Path)
+	 */
+	@Override
+	public void writeIndex(Path outputFile) throws IOException {
+		boolean[] all = all();
+		lock(all, false);
+		try {
+			combine().writeIndex(outputFile);
+		} finally {
+			unlock(all, false);
+		}
+	}
+
+	/**
+	 * @see InvertedIndex#wordCounts()
+	 */
+	@Override
+	public TreeMap<String, Integer> wordCounts() {
+		TreeMap<String, Integer> words = new TreeMap<String, Integer>();
+		for (Entry<String, LongAdder> entry : counts.entrySet()) {
+			int count = entry.getValue().intValue();
+			if (count > 0) {
+				words.put(entry.getKey(), count);
+			}
+		}
+		return words;
+	}
+
+	/**
+	 * @see InvertedIndex#writeLocations(Path)
+	 */
+	@Override
+	public void writeLocations(Path outputFile) throws IOException {
+		PrettyJSONWriter.asObject(wordCounts(), outputFile);
+	}
+
+	/**
+	 * @see InvertedIndex#writeSnapshot(Path)
+	 */
+	@Override
+	public void writeSnapshot(Path outputFile) throws IOException {
+		boolean[] all = all();
+		lock(all, false);
+		try {
+			combine().writeSnapshot(outputFile);
+		} finally {
+			unlock(all, false);
+		}
+	}
+
+	/**
+	 * Loads a snapshot and adds it to the stripes. Unlike
+	 * {@link InvertedIndex#readSnapshot(Path)}, every posting is read at once.
+	 *
+	 * @see InvertedIndex#readSnapshot(Path)
+	 */
+	@Override
+	public void readSnapshot(Path inputFile) throws IOException {
+		InvertedIndex loaded = new InvertedIndex();
+		loaded.readSnapshot(inputFile);
+		this.addAll(loaded);
+	}
+
+	/**
+	 * @see InvertedIndex#partition(int, ToIntFunction)
+	 */
+	@Override
+	public InvertedIndex[] partition(int parts, ToIntFunction<String> part) {
+		boolean[] all = all();
+		lock(all, false);
+		try {
+			return combine().partition(parts, part);
+		} finally {
+			unlock(all, false);
+		}
+	}
+
+	/**
+	 * @see InvertedIndex#numWords()
+	 */
+	@Override
+	public int numWords() {
+		boolean[] all = all();
+		lock(all, false);
+		try {
+			int words = 0;
+			for (InvertedIndex stripe : stripes) {
+				words += stripe.numWords();
+			}
+			return words;
+		} finally {
+			unlock(all, false);
+		}
+	}
+
+	/**
+	 * Returns the sum of the generations of the stripes, which changes whenever
+	 * any stripe changes.
+	 *
+	 * @see InvertedIndex#generation()
+	 */
+	@Override
+	public long generation() {
+		boolean[] all = all();
+		lock(all, false);
+		try {
+			long generation = 0;
+			for (InvertedIndex stripe : stripes) {
+				generation += stripe.generation();
+			}
+			return generation;
+		} finally {
+			unlock(all, false);
+		}
+	}
+
+	/**
+	 * @see InvertedIndex#size()
+	 */
+	@Override
+	public long size() {
+		boolean[] all = all();
+		lock(all, false);
+		try {
+			long size = 0;
+			for (InvertedIndex stripe : stripes) {
+				size += stripe.size();
+			}
+			return size;
+		} finally {
+			unlock(all, false);
+		}
+	}
+
+	/**
+	 * @see InvertedIndex#empty()
+	 */
+	@Override
+	public boolean empty() {
+		return numWords() == 0;
+	}
+
+	/**
+	 * @see InvertedIndex#numFiles(String)
+	 */
+	@Override
+	public int numFiles(String word) {
+		int i = stripe(word);
+		locks[i].readLock().lock();
+		try {
+			return stripes[i].numFiles(word);
+		} finally {
+			locks[i].readLock().unlock();
+		}
+	}
+
+	/**
+	 * @see InvertedIndex#numPositions(String, String)
+	 */
+	@Override
+	public int numPositions(String word, String location) {
+		int i = stripe(word);
+		locks[i].readLock().lock();
+		try {
+			return stripes[i].numPositions(word, location);
+		} finally {
+			locks[i].readLock().unlock();
+		}
+	}
+
+	/**
+	 * @see InvertedIndex#contains(String)
+	 */
+	@Override
+	public boolean contains(String word) {
+		int i = stripe(word);
+		locks[i].readLock().lock();
+		try {
+			return stripes[i].contains(word);
+		} finally {
+			locks[i].readLock().unlock();
+		}
+	}
+
+	/**
+	 * @see InvertedIndex#contains(String, String)
+	 */
+	@Override
+	public boolean contains(String word, String file) {
+		int i = stripe(word);
+		locks[i].readLock().lock();
+		try {
+			return stripes[i].contains(word, file);
+		} finally {
+			locks[i].readLock().unlock();
+		}
+	}
+
+	/**
+	 * Searches only the stripes holding the queries, which must all be locked
+	 * together so the search sees every stripe at the same point in time.
+	 *
+	 * @see InvertedIndex#exactSearch(Collection)
+	 */
+	@Override
+	public ArrayList<SearchResult> exactSearch(Collection<String> line) {
+		ArrayList<SearchResult> results = results(collectExact(line));
+		Collections.sort(results);
+		return results;
+	}
+
+	/**
+	 * Searches every stripe, since words starting with a query may be in any of
+	 * them.
+	 *
+	 * @see InvertedIndex#partialSearch(Collection)
+	 */
+	@Override
+	public ArrayList<SearchResult> partialSearch(Collection<String> queries) {
+		ArrayList<SearchResult> results = results(collectPartial(queries));
+		Collections.sort(results);
+		return results;
+	}
+
+	/**
+	 * Combines the results of the stripes without sorting them, then selects the
+	 * best results directly.
+	 *
+	 * @see InvertedIndex#search(Collection, boolean, int)
+	 */
+	@Override
+	public ArrayList<SearchResult> search(Collection<String> queries, boolean exact, int k) {
+		return SearchResult.top(results(exact ? collectExact(queries) : collectPartial(queries)), k);
+	}
+
+	/**
+	 * Collects the exact matches of the queries from the stripes that hold them.
+	 *
+	 * @param line - queries to search for
+	 * @return a mapping of locations to the results found in the stripes
+	 */
+	private HashMap<String, SearchResult> collectExact(Collection<String> line) {
+		ArrayList<ArrayList<String>> queries = new ArrayList<ArrayList<String>>(stripes.length);
+		boolean[] touched = new boolean[stripes.length];
+		for (int i = 0; i < stripes.length; i++) {
+			queries.add(new ArrayList<String>());
+		}
+		for (String word : line) {
+			int i = stripe(word);
+			queries.get(i).add(word);
+			touched[i] = true;
+		}
+
+		HashMap<String, SearchResult> found = new HashMap<String, SearchResult>();
+		lock(touched, false);
+		try {
+			for (int i = 0; i < stripes.length; i++) {
+				if (touched[i]) {
+					stripes[i].collect(queries.get(i), true, found);
+				}
+			}
+		} finally {
+			unlock(touched, false);
+		}
+		return found;
+	}
+
+	/**
+	 * Collects the partial matches of the queries from every stripe.
+	 *
+	 * @param queries - queries to search for
+	 * @return a mapping of locations to the results found in the stripes
+	 */
+	private HashMap<String, SearchResult> collectPartial(Collection<String> queries) {
+		HashMap<String, SearchResult> found = new HashMap<String, SearchResult>();
+		boolean[] all = all();
+		lock(all, false);
+		try {
+			for (InvertedIndex stripe : stripes) {
+				stripe.collect(queries, false, found);
+			}
+		} finally {
+			unlock(all, false);
+		}
+		return found;
+	}
+
+	/**
+	 * Scores the combined results of several stripes by the total number of words
+	 * in each location, since each stripe only knows the words it stores.
+	 *
+	 * @param found - a mapping of locations to the results found in the stripes
+	 * @return unsorted list of search results
+	 */
+	private ArrayList<SearchResult> results(HashMap<String, SearchResult> found) {
+		ArrayList<SearchResult> results = new ArrayList<SearchResult>(found.size());
+		for (SearchResult result : found.values()) {
+			LongAdder words = counts.get(result.getLocation());
+			int count = words == null ? result.getWordCount() : words.intValue();
+			results.add(new SearchResult(result.getLocation(), result.getQueryCount(), count));
+		}
+		return results;
+	}
+
+	/**
+	 * @see InvertedIndex#toString()
+	 */
+	@Override
+	public String toString() {
+		boolean[] all = all();
+		lock(all, false);
+		try {
+			return combine().toString();
+		} finally {
+			unlock(all, false);
+		}
+	}
+}
@@ -0,0 +1,216 @@
+import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+
+/**
+ * The words of an index in sorted order, each with its ID. The words and IDs
+ * are kept in a pair of parallel arrays, so every word that starts with a
+ * prefix is part of one contiguous range, found with two binary searches, and
+ * the IDs of the words in that range lead straight to their postings. Reading
+ * a range scans memory in order instead of following the links of a tree.
+ *
+ * Words added in sorted order are appended to the arrays. Any other words are
+ * held aside and merged into the arrays the next time the dictionary is read,
+ * so building an index sorts its words once rather than as each one is added.
+ *
+ * Any number of threads may read the dictionary at once, as long as no thread
+ * adds or removes words at the same time.
+ *
+ * @author Ryan Dielhenn
+ */
+public class TermDictionary {
+
+	/** The words in sorted order, followed by unused space. */
+	private String[] words;
+
+	/** The ID of each word in {@link #words}. */
+	private int[] ids;
+
+	/** The number of words in the arrays. */
+	private int size;
+
+	/** Words added out of order that have not been merged into the arrays yet. */
+	private final TreeMap<String, Integer> added;
+
+	/** The number of words waiting in {@link #added}. */
+	private volatile int unsorted;
+
+	/**
+	 * Initializes an empty dictionary.
+	 */
+	public TermDictionary() {
+		this.words = new String[16];
+		this.ids = new int[16];
+		this.size = 0;
+		this.added = new TreeMap<String, Integer>();
+		this.unsorted = 0;
+	}
+
+	/**
+	 * Adds a word with its ID, replacing the ID if the word is already stored.
+	 *
+	 * @param word the word to add
+	 * @param id   the ID of the word
+	 */
+	public void add(String word, int id) {
+		if (unsorted == 0 && (size == 0 || word.compareTo(words[size - 1]) > 0)) {
+			if (size == words.length) {
+				words = Arrays.copyOf(words, 2 * size);
+				ids = Arrays.copyOf(ids, 2 * size);
+			}
+			words[size] = word;
+			ids[size] = id;
+			size++;
+		} else {
+			added.put(word, id);
+			unsorted = added.size();
+		}
+	}
+
+	/**
+	 * Removes every word whose ID matches a condition.
+	 *
+	 * @param filter returns true for the IDs of the words to remove
+	 */
+	public void removeIf(IntPredicate filter) {
+		sort();
+		int kept = 0;
+		for (int i = 0; i < size; i++) {
+			if (!filter.test(ids[i])) {
+				words[kept] = words[i];
+				ids[kept] = ids[i];
+				kept++;
+			}
+		}
+		Arrays.fill(words, kept, size, null);
+		size = kept;
+	}
+
+	/**
+	 * Returns the number of words stored.
+	 *
+	 * @return number of words
+	 */
+	public int size() {
+		sort();
+		return size;
+	}
+
+	/**
+	 * Returns the word at a position in sorted order.
+	 *
+	 * @param position the position of the word, less than {@link #size()}
+	 * @return the word
+	 */
+	public String word(int position) {
+		sort();
+		return words[position];
+	}
+
+	/**
+	 * Returns the ID of the word at a position in sorted order.
+	 *
+	 * @param position the position of the word, less than {@link #size()}
+	 * @return the ID of the word
+	 */
+	public int id(int position) {
+		sort();
+		return ids[position];
+	}
+
+	/**
+	 * Returns the position of the first word that starts with a prefix. If there
+	 * is none, this is where such a word would be.
+	 *
+	 * @param prefix the prefix to look for
+	 * @return the position of the first word not less than the prefix
+	 */
+	public int start(String prefix) {
+		sort();
+		int position = Arrays.binarySearch(words, 0, size, prefix);
+		return position < 0 ? -(position + 1) : position;
+	}
+
+	/**
+	 * Returns the position just after the last word that starts with a prefix,
+	 * so that the words starting with it are those from {@link #start(String)} up
+	 * to but not including this position.
+	 *
+	 * @param prefix the prefix to look for
+	 * @param start  the position of the first word that starts with the prefix
+	 * @return the end of the range of words that start with the prefix
+	 */
+	public int end(String prefix, int start) {
+		sort();
+		return end(words, start, size, prefix);
+	}
+
+	/**
+	 * Finds the end of the words that start with a prefix in part of a sorted
+	 * array, where the part begins with the first such word.
+	 *
+	 * @param words  the words in sorted order
+	 * @param start  the position of the first word that starts with the prefix
+	 * @param to     the end of the part of the array to search
+	 * @param prefix the prefix to look for
+	 * @return the position just after the last word that starts with the prefix
+	 */
+	public static int end(String[] words, int start, int to, String prefix) {
+		/* Words that start with the prefix all come before those that do not */
+		int low = start;
+		int high = to;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (words[middle].startsWith(prefix)) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Merges any words added out of order into the sorted arrays. Only one thread
+	 * merges the words; the rest wait for it and then read the merged arrays.
+	 */
+	private void sort() {
+		if (unsorted == 0) {
+			return;
+		}
+
+		synchronized (added) {
+			if (unsorted == 0) {
+				return;
+			}
+
+			int capacity = Math.max(16, Integer.highestOneBit(size + added.size()) << 1);
+			String[] mergedWords = new String[capacity];
+			int[] mergedIds = new int[capacity];
+			int merged = 0;
+			int i = 0;
+			for (Entry<String, Integer> entry : added.entrySet()) {
+				while (i < size && words[i].compareTo(entry.getKey()) < 0) {
+					mergedWords[merged] = words[i];
+					mergedIds[merged++] = ids[i++];
+				}
+				if (i < size && words[i].equals(entry.getKey())) {
+					i++;
+				}
+				mergedWords[merged] = entry.getKey();
+				mergedIds[merged++] = entry.getValue();
+			}
+			while (i < size) {
+				mergedWords[merged] = words[i];
+				mergedIds[merged++] = ids[i++];
+			}
+
+			words = mergedWords;
+			ids = mergedIds;
+			size = merged;
+			added.clear();
+			unsorted = 0;
+		}
+	}
+}
@@ -1,9 +1,13 @@
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileVisitOption;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.function.BiPredicate;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -63,6 +67,98 @@ public class TextFileFinder {
 		return TextFileFinder.find(start).collect(Collectors.toList());
 	}
 
+	/**
+	 * Walks the text files under a path in parallel. Each directory is listed by
+	 * its own task in the group, so several threads search wide trees at once,
+	 * and each text file is handed on as soon as it is found instead of after the
+	 * whole walk. Symbolic links are followed like in {@link #find(Path)}, except
+	 * that a directory that links back to one of its own ancestors is skipped
+	 * rather than failing the walk.
+	 *
+	 * @param start the initial path to start with
+	 * @param tasks the group to list the directories in
+	 * @param found called with each text file found, from any thread
+	 *
+	 * @see #find(Path)
+	 */
+	public static void walk(Path start, WorkQueue.TaskGroup tasks, Consumer<Path> found) {
+		tasks.execute(new Walk(start, List.of(), tasks, found));
+	}
+
+	/**
+	 * Lists one directory of a parallel walk, or checks one file at its start.
+	 *
+	 * @see TextFileFinder#walk(Path, WorkQueue.TaskGroup, Consumer)
+	 */
+	private static class Walk implements Runnable {
+
+		/** The path to list */
+		private final Path path;
+
+		/** The real paths of the directories above this one */
+		private final List<Path> ancestors;
+
+		/** The group to list subdirectories in */
+		private final WorkQueue.TaskGroup tasks;
+
+		/** Called with each text file found */
+		private final Consumer<Path> found;
+
+		/**
+		 * Constructor
+		 *
+		 * @param path      the path to list
+		 * @param ancestors the real paths of the directories above this one
+		 * @param tasks     the group to list subdirectories in
+		 * @param found     called with each text file found
+		 */
+		public Walk(Path path, List<Path> ancestors, WorkQueue.TaskGroup tasks, Consumer<Path> found) {
+			this.path = path;
+			this.ancestors = ancestors;
+			this.tasks = tasks;
+			this.found = found;
+		}
+
+		/**
+		 * Hands on the text files in this directory and adds a task for each of its
+		 * subdirectories.
+		 *
+		 * @throws UncheckedIOException if the directory could not be read
+		 */
+		@Override
+		public void run() {
+			if (!Files.isDirectory(path)) {
+				if (TEXT_EXT.test(path, Files.isRegularFile(path))) {
+					found.accept(path);
+				}
+				return;
+			}
+
+			try {
+				Path real = path.toRealPath();
+				if (ancestors.contains(real)) {
+					return;
+				}
+
+				List<Path> below = new ArrayList<Path>(ancestors.size() + 1);
+				below.addAll(ancestors);
+				below.add(real);
+
+				try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
+					for (Path entry : entries) {
+						if (Files.isDirectory(entry)) {
+							tasks.execute(new Walk(entry, below, tasks, found));
+						} else if (TEXT_EXT.test(entry, Files.isRegularFile(entry))) {
+							found.accept(entry);
+						}
+					}
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
 	/**
 	 * Demonstrates this class.
 	 *
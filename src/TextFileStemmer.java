@@ -5,7 +5,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -21,6 +21,36 @@ import opennlp.tools.stemmer.snowball.SnowballStemmer;
  */
 public class TextFileStemmer {
 
+	/**
+	 * English stemmers that are not being used, shared by every thread. A stemmer
+	 * keeps state while it works, so each one may only be used by one thread at a
+	 * time, but it can be reused once that thread is done with it.
+	 */
+	private static final ObjectPool<Stemmer> STEMMERS = new ObjectPool<Stemmer>();
+
+	/**
+	 * Takes an English stemmer that no other thread is using, creating one only if
+	 * every pooled stemmer is taken. Give it back with
+	 * {@link #releaseStemmer(Stemmer)} once done, so tasks that stem a single file
+	 * or query do not each build a stemmer of their own.
+	 *
+	 * @return a stemmer for the current thread to use
+	 */
+	public static Stemmer takeStemmer() {
+		Stemmer stemmer = STEMMERS.take();
+		return stemmer == null ? new SnowballStemmer(SnowballStemmer.ALGORITHM.ENGLISH) : stemmer;
+	}
+
+	/**
+	 * Gives back a stemmer taken with {@link #takeStemmer()}. The stemmer must not
+	 * be used afterwards. If the pool is full, the stemmer is dropped.
+	 *
+	 * @param stemmer the stemmer to give back
+	 */
+	public static void releaseStemmer(Stemmer stemmer) {
+		STEMMERS.release(stemmer);
+	}
+
 	/**
 	 * Returns a list of cleaned and stemmed words parsed from the provided line.
 	 * Uses the English
@@ -35,7 +65,12 @@ public class TextFileStemmer {
 	 * @see #stemLine(String, Stemmer)
 	 */
 	public static List<String> stemLine(String line) {
-		return stemLine(line, new SnowballStemmer(SnowballStemmer.ALGORITHM.ENGLISH));
+		Stemmer stemmer = takeStemmer();
+		try {
+			return stemLine(line, stemmer);
+		} finally {
+			releaseStemmer(stemmer);
+		}
 	}
 
 	/**
@@ -54,14 +89,18 @@ public class TextFileStemmer {
 	}
 
 	/**
-	 * Returns a stream of a stemmed and parsed line
+	 * Returns a stream of a stemmed and parsed line. Stems are looked up in the
+	 * shared {@link StemCache} first.
 	 * 
 	 * @param line
 	 * @param stemmer
 	 * @return stream of words in line
+	 * @see TextParser#parse(CharSequence, java.util.function.Consumer)
 	 */
 	public static Stream<String> stemLineStream(String line, Stemmer stemmer) {
-		return Arrays.stream(TextParser.parse(line)).map(word -> stemmer.stem(word).toString());
+		ArrayList<String> words = new ArrayList<String>();
+		TextParser.parse(line, word -> words.add(StemCache.SHARED.stem(word, stemmer)));
+		return words.stream();
 	}
 
 	/**
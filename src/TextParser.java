@@ -1,4 +1,9 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
 import java.text.Normalizer;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
 /**
@@ -18,6 +23,20 @@ public class TextParser {
 	 */
 	public static final Pattern CLEAN_REGEX = Pattern.compile("(?U)[^\\p{Alpha}\\p{Space}]+");
 
+	/**
+	 * How {@link #parse(String)} treats each ASCII character: a space for
+	 * whitespace, the lowercase letter for letters, and 0 for characters that are
+	 * removed. Null if lowercasing in the default locale turns an ASCII letter into
+	 * something else, in which case every line is decoded and parsed as a string.
+	 */
+	private static final char[] ASCII = ascii();
+
+	/** The first character that is not ASCII. */
+	private static final int ASCII_LIMIT = 128;
+
+	/** The buffer each thread builds words in. */
+	private static final ThreadLocal<StringBuilder> WORD = ThreadLocal.withInitial(StringBuilder::new);
+
 	/**
 	 * Cleans the text by removing any non-alphabetic characters (e.g. non-letters
 	 * like digits, punctuation, symbols, and diacritical marks like the umlaut) and
@@ -58,4 +77,146 @@ public class TextParser {
 	public static String[] parse(String text) {
 		return split(clean(text));
 	}
+
+	/**
+	 * Cleans and splits the text in a single pass, giving each word to the action
+	 * in order. The words are exactly those {@link #parse(String)} gives. Text
+	 * that is entirely ASCII is cleaned one character at a time into a reused
+	 * buffer, without copying the text or allocating any strings; only text with
+	 * other characters is normalized and parsed as a string.
+	 *
+	 * The same {@link CharSequence} is reused for every word, so the action must
+	 * copy a word (for example with {@code toString()}) to keep it.
+	 *
+	 * @param text   the text to clean and split
+	 * @param action called with each word
+	 *
+	 * @see #parse(String)
+	 */
+	public static void parse(CharSequence text, Consumer<CharSequence> action) {
+		int length = text.length();
+		int ascii = 0;
+		for (int i = 0; i < length; i++) {
+			ascii |= text.charAt(i);
+		}
+
+		if (ascii >= ASCII_LIMIT || ASCII == null) {
+			for (String parsed : parse(text.toString())) {
+				action.accept(parsed);
+			}
+			return;
+		}
+
+		StringBuilder word = WORD.get();
+		word.setLength(0);
+		for (int i = 0; i < length; i++) {
+			add(text.charAt(i), word, action);
+		}
+		end(word, action);
+	}
+
+	/**
+	 * Cleans and splits UTF-8 encoded text, giving each word to the action in
+	 * order. The text is split into lines at line feeds and carriage returns, and
+	 * the words are exactly those {@link #parse(String)} gives for each line. Lines
+	 * that are entirely ASCII are parsed straight from the bytes; only lines with
+	 * other characters are decoded.
+	 *
+	 * The same {@link CharSequence} is reused for every word, so the action must
+	 * copy a word (for example with {@code toString()}) to keep it.
+	 *
+	 * @param bytes  the encoded text
+	 * @param offset the offset of the first byte to parse
+	 * @param length the number of bytes to parse
+	 * @param action called with each word
+	 * @throws CharacterCodingException if a line is not valid UTF-8
+	 *
+	 * @see #parse(String)
+	 */
+	public static void parse(byte[] bytes, int offset, int length, Consumer<CharSequence> action)
+			throws CharacterCodingException {
+		StringBuilder word = WORD.get();
+		CharsetDecoder decoder = null;
+		int end = offset + length;
+		int start = offset;
+		while (start < end) {
+			int stop = start;
+			int ascii = 0;
+			while (stop < end && bytes[stop] != '\n' && bytes[stop] != '\r') {
+				ascii |= bytes[stop];
+				stop++;
+			}
+
+			if (ascii < 0 || ASCII == null) {
+				if (decoder == null) {
+					decoder = StandardCharsets.UTF_8.newDecoder();
+				}
+				String line = decoder.decode(ByteBuffer.wrap(bytes, start, stop - start)).toString();
+				for (String parsed : parse(line)) {
+					action.accept(parsed);
+				}
+			} else {
+				word.setLength(0);
+				for (int i = start; i < stop; i++) {
+					add((char) bytes[i], word, action);
+				}
+				end(word, action);
+			}
+			start = stop + 1;
+		}
+	}
+
+	/**
+	 * Adds one ASCII character to the word being built, giving the word to the
+	 * action and starting a new one if the character is whitespace.
+	 *
+	 * @param c      the character, which must be ASCII
+	 * @param word   the word being built
+	 * @param action called with the word if it ends
+	 */
+	private static void add(char c, StringBuilder word, Consumer<CharSequence> action) {
+		char cleaned = ASCII[c];
+		if (cleaned == ' ') {
+			end(word, action);
+		} else if (cleaned != 0) {
+			word.append(cleaned);
+		}
+	}
+
+	/**
+	 * Gives the word being built to the action, unless it is empty, and starts a
+	 * new one.
+	 *
+	 * @param word   the word being built
+	 * @param action called with the word
+	 */
+	private static void end(StringBuilder word, Consumer<CharSequence> action) {
+		if (word.length() > 0) {
+			action.accept(word);
+			word.setLength(0);
+		}
+	}
+
+	/**
+	 * Works out how {@link #parse(String)} treats each ASCII character.
+	 *
+	 * @return the table, or null if ASCII letters cannot be lowercased on their own
+	 * @see #ASCII
+	 */
+	private static char[] ascii() {
+		char[] table = new char[ASCII_LIMIT];
+		for (char c = 0; c < table.length; c++) {
+			String text = String.valueOf(c);
+			if (SPLIT_REGEX.matcher(text).matches()) {
+				table[c] = ' ';
+			} else if (!CLEAN_REGEX.matcher(text).matches()) {
+				String lower = text.toLowerCase();
+				if (lower.length() != 1 || lower.charAt(0) >= table.length) {
+					return null;
+				}
+				table[c] = lower.charAt(0);
+			}
+		}
+		return table;
+	}
 }
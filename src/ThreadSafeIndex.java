@@ -3,9 +3,16 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.TreeMap;
+import java.util.function.ToIntFunction;
 
 /**
  * A thread safe InvertedIndex
+ *
+ * Searches wait while a writer holds the lock. Publishing each update as a new
+ * snapshot would mean copying the whole index, so searches that never wait for
+ * writers are left to {@link SegmentedIndex}, whose immutable segments can be
+ * shared between snapshots.
  * 
  * @author Ryan Dielhenn
  */
@@ -14,14 +21,25 @@ public class ThreadSafeIndex extends InvertedIndex {
 	/**
 	 * The lock used to protect concurrent access to the underlying data structure.
 	 */
-	private SimpleReadWriteLock lock;
+	protected final SimpleReadWriteLock lock;
 
 	/**
-	 * Default constructor
+	 * Default constructor, which protects the index with a
+	 * {@link ScalableReadWriteLock} so concurrent searches do not contend with
+	 * each other
 	 */
 	public ThreadSafeIndex() {
+		this(new ScalableReadWriteLock());
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param lock - The lock used to protect the index
+	 */
+	public ThreadSafeIndex(SimpleReadWriteLock lock) {
 		super();
-		lock = new SimpleReadWriteLock();
+		this.lock = lock;
 	}
 
 	/**
@@ -50,6 +68,87 @@ public class ThreadSafeIndex extends InvertedIndex {
 		}
 	}
 
+	/**
+	 * @see InvertedIndex#removeLocation(String)
+	 */
+	@Override
+	public boolean removeLocation(String location) {
+		lock.writeLock().lock();
+		try {
+			return super.removeLocation(location);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @see InvertedIndex#removeLocations(Collection)
+	 */
+	@Override
+	public boolean removeLocations(Collection<String> removed) {
+		lock.writeLock().lock();
+		try {
+			return super.removeLocations(removed);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Replaces a location while holding the write lock, so searches see either
+	 * the old or the new contents of the location but never neither.
+	 * 
+	 * @see InvertedIndex#replaceLocation(String, InvertedIndex)
+	 */
+	@Override
+	public void replaceLocation(String location, InvertedIndex replacement) {
+		lock.writeLock().lock();
+		try {
+			super.replaceLocation(location, replacement);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @see InvertedIndex#needsCompaction()
+	 */
+	@Override
+	public boolean needsCompaction() {
+		lock.readLock().lock();
+		try {
+			return super.needsCompaction();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @see InvertedIndex#aggregatePrefixes(int, int)
+	 */
+	@Override
+	public void aggregatePrefixes(int length, int fanOut) {
+		lock.writeLock().lock();
+		try {
+			super.aggregatePrefixes(length, fanOut);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @see InvertedIndex#compact()
+	 */
+	@Override
+	public void compact() {
+		lock.writeLock().lock();
+		try {
+			super.compact();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
 	/**
 	 * @see InvertedIndex#writeIndex(Path)
 	 */
@@ -68,6 +167,58 @@ public class ThreadSafeIndex extends InvertedIndex {
 		super.writeLocations(outputFile);
 	}
 
+	/**
+	 * @see InvertedIndex#wordCounts()
+	 */
+	@Override
+	public TreeMap<String, Integer> wordCounts() {
+		lock.readLock().lock();
+		try {
+			return super.wordCounts();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @see InvertedIndex#partition(int, ToIntFunction)
+	 */
+	@Override
+	public InvertedIndex[] partition(int parts, ToIntFunction<String> part) {
+		lock.readLock().lock();
+		try {
+			return super.partition(parts, part);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @see InvertedIndex#writeSnapshot(Path)
+	 */
+	@Override
+	public void writeSnapshot(Path outputFile) throws IOException {
+		lock.readLock().lock();
+		try {
+			super.writeSnapshot(outputFile);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @see InvertedIndex#readSnapshot(Path)
+	 */
+	@Override
+	public void readSnapshot(Path inputFile) throws IOException {
+		lock.writeLock().lock();
+		try {
+			super.readSnapshot(inputFile);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
 	/**
 	 * @see InvertedIndex#numWords()
 	 */
@@ -81,6 +232,32 @@ public class ThreadSafeIndex extends InvertedIndex {
 		}
 	}
 
+	/**
+	 * @see InvertedIndex#generation()
+	 */
+	@Override
+	public long generation() {
+		lock.readLock().lock();
+		try {
+			return super.generation();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @see InvertedIndex#size()
+	 */
+	@Override
+	public long size() {
+		lock.readLock().lock();
+		try {
+			return super.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
 	/**
 	 * @see InvertedIndex#empty()
 	 */
@@ -172,6 +349,19 @@ public class ThreadSafeIndex extends InvertedIndex {
 		}
 	}
 
+	/**
+	 * @see InvertedIndex#search(java.util.Collection, boolean, int)
+	 */
+	@Override
+	public ArrayList<SearchResult> search(Collection<String> queries, boolean exact, int k) {
+		lock.readLock().lock();
+		try {
+			return super.search(queries, exact, k);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
 	/**
 	 * Adds a threads local data to this. The synchronization of @param local must
 	 * be handled by the caller
@@ -1,5 +1,12 @@
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
@@ -36,20 +43,285 @@ public class ThreadSafeIndexBuilder extends InvertedIndexBuilder {
 	}
 
 	/**
-	 * Builds out ThreadSafeIndex given a starting point in a file system
+	 * Builds out ThreadSafeIndex from a list of files
 	 * 
-	 * @param start
+	 * @param files - List of files to add to index
 	 */
+	@Override
+	public void build(List<Path> files) throws IOException {
+
+		WorkQueue.TaskGroup tasks = workers.group();
+		for (Path path : files) {
+			submit(tasks, path, false);
+		}
+
+		join(tasks);
+	}
+
+	/**
+	 * Builds out ThreadSafeIndex from a stream of files, handing each file to a
+	 * worker as soon as the stream produces it
+	 * 
+	 * @param files - Stream of files to add to index
+	 */
+	@Override
+	public void build(Stream<Path> files) throws IOException {
+		WorkQueue.TaskGroup tasks = workers.group();
+		Iterator<Path> iterator = files.iterator();
+		while (iterator.hasNext()) {
+			submit(tasks, iterator.next(), false);
+		}
+
+		join(tasks);
+	}
+
+	/**
+	 * Builds out ThreadSafeIndex from a given starting path. The directories are
+	 * searched in parallel by the workers, which start indexing each file as soon
+	 * as it is found.
+	 * 
+	 * @param start - Directory to start search from
+	 */
+	@Override
 	public void build(Path start) throws IOException {
+		WorkQueue.TaskGroup tasks = workers.group();
+		TextFileFinder.walk(start, tasks, path -> submit(tasks, path, false));
+		join(tasks);
+		log.debug("Stem cache: {}", StemCache.SHARED);
+	}
+
+	/**
+	 * Indexes files again in parallel, replacing whatever the index held for each
+	 * of them. If enough old positions were left behind, compaction is handed to
+	 * the work queue so it runs in the background.
+	 * 
+	 * @param files - List of files to index again
+	 */
+	@Override
+	public void rebuild(List<Path> files) throws IOException {
+
+		WorkQueue.TaskGroup tasks = workers.group();
+		for (Path path : files) {
+			submit(tasks, path, true);
+		}
+
+		join(tasks);
 
-		for (Path path : TextFileFinder.list(start)) {
-			workers.execute(new Task(path));
+		if (index.needsCompaction()) {
+			workers.execute(index::compact);
 		}
+	}
 
+	/**
+	 * Waits for the files in a group to be indexed.
+	 * 
+	 * @param tasks - The group of tasks indexing the files
+	 * @throws IOException if a task failed
+	 */
+	private static void join(WorkQueue.TaskGroup tasks) throws IOException {
 		try {
-			workers.join();
+			tasks.join();
 		} catch (InterruptedException e) {
 			log.catching(Level.DEBUG, e);
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			}
+			throw new IOException("Could not index every file", e.getCause());
+		}
+	}
+
+	/**
+	 * Adds the tasks that index a file to a group. Files larger than
+	 * {@link InvertedIndexBuilder#CHUNK} are split into chunks that are indexed in
+	 * parallel, so a single huge file does not keep one worker busy while the
+	 * others sit idle.
+	 * 
+	 * A file that can not be split fails the group with the exception that
+	 * stopped it.
+	 * 
+	 * @param tasks   - The group to add the tasks to
+	 * @param path    - The file to index
+	 * @param replace - Whether to replace what the index already holds for path
+	 */
+	private void submit(WorkQueue.TaskGroup tasks, Path path, boolean replace) {
+		long[] chunks = null;
+		try {
+			if (Files.size(path) > InvertedIndexBuilder.CHUNK) {
+				chunks = InvertedIndexBuilder.chunks(path);
+			}
+		} catch (IOException e) {
+			UncheckedIOException failure = new UncheckedIOException(e);
+			tasks.execute(() -> {
+				throw failure;
+			});
+			return;
+		}
+
+		if (chunks == null || chunks.length <= 2) {
+			tasks.execute(new Task(path, replace));
+			return;
+		}
+
+		ChunkedFile file = new ChunkedFile(path, replace, chunks.length - 1);
+		for (int i = 0; i < chunks.length - 1; i++) {
+			tasks.execute(file.new Chunk(i, chunks[i], chunks[i + 1]));
+		}
+	}
+
+	/**
+	 * Adds the words of one file to the index, replacing what the index already
+	 * held for the file if asked to.
+	 * 
+	 * @param path    - The file the words were found in
+	 * @param local   - The words of the file
+	 * @param replace - Whether to replace what the index already holds for path
+	 */
+	private void store(Path path, InvertedIndex local, boolean replace) {
+		if (replace) {
+			index.replaceLocation(path.toString(), local);
+		} else {
+			index.addAll(local);
+		}
+	}
+
+	/**
+	 * A file that is indexed in chunks. Each chunk is indexed into its own local
+	 * index with positions starting at 1, and the last chunk to finish moves each
+	 * local index's positions to where its chunk is in the file, combines them and
+	 * adds them to the index. The index ends up with exactly the positions that
+	 * indexing the whole file at once would give.
+	 */
+	private class ChunkedFile {
+
+		/** The file being indexed */
+		private final Path path;
+
+		/** Whether to replace what the index already holds for the file */
+		private final boolean replace;
+
+		/** The words of each chunk */
+		private final InvertedIndex[] locals;
+
+		/** The number of words in each chunk */
+		private final int[] counts;
+
+		/** The exception that stopped each chunk from being read, if any */
+		private final IOException[] failures;
+
+		/** The number of chunks that have not finished */
+		private final AtomicInteger remaining;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param path    - The file being indexed
+		 * @param replace - Whether to replace what the index already holds for path
+		 * @param chunks  - The number of chunks
+		 */
+		public ChunkedFile(Path path, boolean replace, int chunks) {
+			this.path = path;
+			this.replace = replace;
+			this.locals = new InvertedIndex[chunks];
+			this.counts = new int[chunks];
+			this.failures = new IOException[chunks];
+			this.remaining = new AtomicInteger(chunks);
+		}
+
+		/**
+		 * Moves the positions of each chunk after the words of the chunks before it,
+		 * merges the chunks in pairs so no positions are copied more than a few
+		 * times, and adds the result to the index. Nothing is added if any chunk
+		 * could not be read, and the group fails with the exception that stopped
+		 * the first such chunk.
+		 * 
+		 * @throws UncheckedIOException if any chunk could not be read
+		 */
+		private void finish() {
+			IOException failure = null;
+			for (IOException e : failures) {
+				if (e == null) {
+					continue;
+				}
+				if (failure == null) {
+					failure = e;
+				} else {
+					failure.addSuppressed(e);
+				}
+			}
+			if (failure != null) {
+				throw new UncheckedIOException(failure);
+			}
+
+			for (InvertedIndex local : locals) {
+				if (local == null) {
+					/* The chunk failed with an unchecked exception, which already failed the group */
+					return;
+				}
+			}
+
+			int offset = 0;
+			for (int i = 0; i < locals.length; i++) {
+				locals[i].shift(offset);
+				offset += counts[i];
+			}
+
+			for (int step = 1; step < locals.length; step *= 2) {
+				for (int i = 0; i + step < locals.length; i += 2 * step) {
+					locals[i].addAll(locals[i + step]);
+					locals[i + step] = null;
+				}
+			}
+			store(path, locals[0], replace);
+		}
+
+		/**
+		 * A task that indexes one chunk of the file
+		 */
+		private class Chunk implements Runnable {
+
+			/** The position of this chunk in the file */
+			private final int chunk;
+
+			/** Offset of the first byte of this chunk */
+			private final long start;
+
+			/** Offset just past the last byte of this chunk */
+			private final long end;
+
+			/**
+			 * Constructor
+			 * 
+			 * @param chunk - The position of this chunk in the file
+			 * @param start - Offset of the first byte of this chunk
+			 * @param end   - Offset just past the last byte of this chunk
+			 */
+			public Chunk(int chunk, long start, long end) {
+				this.chunk = chunk;
+				this.start = start;
+				this.end = end;
+			}
+
+			/**
+			 * Indexes this chunk, and finishes the file if it was the last chunk left.
+			 * A chunk that can not be read is recorded, and fails the group once the
+			 * last chunk finishes.
+			 */
+			@Override
+			public void run() {
+				try {
+					InvertedIndex local = new InvertedIndex();
+					counts[chunk] = InvertedIndexBuilder.buildChunk(path, start, end, local, workers.cpuLock());
+					locals[chunk] = local;
+				} catch (IOException e) {
+					failures[chunk] = e;
+				} finally {
+					if (remaining.decrementAndGet() == 0) {
+						finish();
+					}
+				}
+			}
 		}
 	}
 
@@ -63,14 +335,21 @@ public class ThreadSafeIndexBuilder extends InvertedIndexBuilder {
 		 */
 		private final Path path;
 
+		/**
+		 * Whether to replace what the index already holds for the path
+		 */
+		private final boolean replace;
+
 		/**
 		 * Constructor for the Task, initializes the path object and increments
 		 * TaskMaster's pending work
 		 * 
-		 * @param path - This task's path
+		 * @param path    - This task's path
+		 * @param replace - Whether to replace what the index already holds for path
 		 */
-		public Task(Path path) {
+		public Task(Path path, boolean replace) {
 			this.path = path;
+			this.replace = replace;
 			log.debug("Task for {} created.", path);
 		}
 
@@ -78,15 +357,18 @@ public class ThreadSafeIndexBuilder extends InvertedIndexBuilder {
 		 * Carries out the work and then decrements TaskMaster's pending work. In this
 		 * case our work is to build a file into this thread's local index and then add
 		 * this local index into the global index
+		 * 
+		 * @throws UncheckedIOException if the file could not be read, which fails the
+		 *                              group the task belongs to
 		 */
 		@Override
 		public void run() {
 			try {
 				InvertedIndex local = new InvertedIndex();
-				InvertedIndexBuilder.buildFile(path, local);
-				index.addAll(local);
+				InvertedIndexBuilder.buildFile(path, local, workers.cpuLock());
+				store(path, local, replace);
 			} catch (IOException e) {
-				log.debug("Could not add " + path + " to the index");
+				throw new UncheckedIOException(e);
 			}
 		}
 	}
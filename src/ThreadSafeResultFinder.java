@@ -6,6 +6,7 @@ import java.nio.file.Path;
 import java.util.List;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.Level;
@@ -13,7 +14,6 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import opennlp.tools.stemmer.Stemmer;
-import opennlp.tools.stemmer.snowball.SnowballStemmer;
 
 /**
  * A thread safe ResultFinder
@@ -23,8 +23,8 @@ import opennlp.tools.stemmer.snowball.SnowballStemmer;
  */
 public class ThreadSafeResultFinder implements ResultFinderInterface {
 
-	/** Index to search */
-	private final ThreadSafeIndex index;
+	/** Index to search, which must be safe to search from several threads */
+	private final SearchableIndex index;
 
 	/**
 	 * Queries mapped to search results found from search
@@ -34,6 +34,12 @@ public class ThreadSafeResultFinder implements ResultFinderInterface {
 	/** Work Queue */
 	private final WorkQueue workers;
 
+	/** Cache of search results to check before searching, or null to always search */
+	private final QueryCache cache;
+
+	/** The most results to keep for each query, or 0 to keep them all */
+	private final int limit;
+
 	/** Logger to use for this class. */
 	private static final Logger log = LogManager.getLogger();
 
@@ -44,30 +50,85 @@ public class ThreadSafeResultFinder implements ResultFinderInterface {
 	 * @param workers - Reference to worker queue
 	 */
 	public ThreadSafeResultFinder(ThreadSafeIndex index, WorkQueue workers) {
+		this((SearchableIndex) index, workers, null, 0);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param index   - Reference to our index
+	 * @param workers - Reference to worker queue
+	 * @param cache   - Cache of search results to use, or null to always search
+	 * @param limit   - The most results to keep for each query, or 0 to keep them all
+	 */
+	public ThreadSafeResultFinder(ThreadSafeIndex index, WorkQueue workers, QueryCache cache, int limit) {
+		this((SearchableIndex) index, workers, cache, limit);
+	}
+
+	/**
+	 * Constructor for searching a read-only index
+	 * 
+	 * @param index   - Reference to our frozen index
+	 * @param workers - Reference to worker queue
+	 */
+	public ThreadSafeResultFinder(FrozenIndex index, WorkQueue workers) {
+		this((SearchableIndex) index, workers, null, 0);
+	}
+
+	/**
+	 * Constructor for searching a read-only index
+	 * 
+	 * @param index   - Reference to our frozen index
+	 * @param workers - Reference to worker queue
+	 * @param cache   - Cache of search results to use, or null to always search
+	 * @param limit   - The most results to keep for each query, or 0 to keep them all
+	 */
+	public ThreadSafeResultFinder(FrozenIndex index, WorkQueue workers, QueryCache cache, int limit) {
+		this((SearchableIndex) index, workers, cache, limit);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param index   - Reference to an index that is safe to search concurrently
+	 * @param workers - Reference to worker queue
+	 * @param cache   - Cache of search results to use, or null to always search
+	 * @param limit   - The most results to keep for each query, or 0 to keep them all
+	 */
+	private ThreadSafeResultFinder(SearchableIndex index, WorkQueue workers, QueryCache cache, int limit) {
 		this.index = index;
 		this.workers = workers;
+		this.cache = cache;
+		this.limit = limit;
 		this.queryMap = new TreeMap<String, List<SearchResult>>();
 	}
 
 	/**
-	 * Main thread creates a new TaskMaster, starts it, and then waits for all work
-	 * to be finished
+	 * Main thread creates a new TaskMaster, starts it, and then waits for the
+	 * queries it added to be finished
 	 * 
 	 * @param exact     - exact or partial search
 	 * @param queryFile - File of queries to parse and search for.
 	 */
 	@Override
 	public void parseQueries(Path queryFile, boolean exact) throws IOException {
+		WorkQueue.TaskGroup tasks = workers.group();
 		try {
-			this.start(queryFile, exact);
+			this.start(queryFile, exact, tasks);
 		} catch (IOException ioe) {
 			log.catching(Level.DEBUG, ioe);
 		}
 
 		try {
-			this.workers.join();
+			tasks.join();
 		} catch (InterruptedException e) {
 			log.catching(Level.DEBUG, e);
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new IOException("Could not search every query", e.getCause());
+		}
+		if (cache != null) {
+			log.debug("Query cache: {}", cache);
 		}
 	}
 
@@ -77,13 +138,14 @@ public class ThreadSafeResultFinder implements ResultFinderInterface {
 	 * 
 	 * @param queryFile
 	 * @param exact
+	 * @param tasks     - The group to add the tasks to
 	 * @throws IOException
 	 */
-	private void start(Path queryFile, boolean exact) throws IOException {
+	private void start(Path queryFile, boolean exact, WorkQueue.TaskGroup tasks) throws IOException {
 		try (BufferedReader reader = Files.newBufferedReader(queryFile, StandardCharsets.UTF_8)) {
 			String line;
 			while ((line = reader.readLine()) != null) {
-				workers.execute(new Task(line, exact));
+				tasks.execute(new Task(line, exact));
 			}
 		}
 	}
@@ -126,14 +188,32 @@ public class ThreadSafeResultFinder implements ResultFinderInterface {
 		/**
 		 * Carries out the work and then decrements TaskMaster's pending work In this
 		 * case our work is to stem a query line, search for it in out index and put the
-		 * results into our queryMap
+		 * results into our queryMap. None of this waits on I/O, so all of it is done
+		 * while holding the work queue's CPU lock.
 		 */
 		@Override
 		public void run() {
+			SimpleLock cpu = workers.cpuLock();
+			cpu.lock();
+			try {
+				search();
+			} finally {
+				cpu.unlock();
+			}
+		}
+
+		/**
+		 * Stems the query line, searches for it and stores the results.
+		 */
+		private void search() {
 			/** Stem the query line and collect stemmed words into a set */
-			Stemmer stemmer = new SnowballStemmer(SnowballStemmer.ALGORITHM.ENGLISH);
-			TreeSet<String> words = TextFileStemmer.stemLineStream(line, stemmer)
-					.collect(Collectors.toCollection(TreeSet::new));
+			TreeSet<String> words;
+			Stemmer stemmer = TextFileStemmer.takeStemmer();
+			try {
+				words = TextFileStemmer.stemLineStream(line, stemmer).collect(Collectors.toCollection(TreeSet::new));
+			} finally {
+				TextFileStemmer.releaseStemmer(stemmer);
+			}
 			/** Add the query line and it's search results to the queryMap */
 			if (!words.isEmpty()) {
 				String query = String.join(" ", words);
@@ -144,7 +224,12 @@ public class ThreadSafeResultFinder implements ResultFinderInterface {
 					}
 				}
 
-				List<SearchResult> results = index.search(words, exact);
+				List<SearchResult> results;
+				if (cache != null) {
+					results = cache.search(index, words, query, exact, limit);
+				} else {
+					results = limit > 0 ? index.search(words, exact, limit) : index.search(words, exact);
+				}
 				synchronized (queryMap) {
 					queryMap.put(query, results);
 				}
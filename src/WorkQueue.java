@@ -1,4 +1,13 @@
 import java.util.LinkedList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -8,18 +17,59 @@ import org.apache.logging.log4j.Logger;
  * Brian Goetz. It is up to the user of this class to keep track of whether
  * there is any pending work remaining.
  *
+ * The queue can also run its work on a work-stealing pool instead of its own
+ * workers. There each worker keeps its own deque of tasks, work submitted by a
+ * task stays with the worker that submitted it, idle workers steal from busy
+ * ones, and only one idle worker is woken per task.
+ *
+ * Finally, the queue can run each piece of work on its own virtual thread, so
+ * work that mostly waits on I/O is not limited by the number of threads. The
+ * number of threads is then only used to limit CPU-heavy work; see
+ * {@link #cpuLock()}.
+ *
+ * Work that belongs together can be submitted through a {@link TaskGroup}, which
+ * waits for only its own work and reports the first failure of it, so several
+ * users can share one queue without waiting on each other.
+ *
+ * A queue can be given a capacity, in which case adding work waits while the
+ * queue is full, so memory use stays flat however much work a producer has.
+ *
  * @see <a href=
  *      "http://www.ibm.com/developerworks/library/j-jtp0730/index.html">Java
  *      Theory and Practice: Thread Pools and Work Queues</a>
  */
 public class WorkQueue {
 
+	/**
+	 * The ways work can be run by a work queue.
+	 */
+	public enum Mode {
+		/** Worker threads take work from a single shared queue. */
+		QUEUE,
+		/** Work runs on a work-stealing pool with a deque per worker. */
+		STEALING,
+		/**
+		 * Each piece of work runs on its own virtual thread, or on a cached thread
+		 * pool if the Java runtime does not support virtual threads.
+		 */
+		VIRTUAL
+	}
+
 	/**
 	 * Pool of worker threads that will wait in the background until work is
-	 * available.
+	 * available. Empty unless running in {@link Mode#QUEUE} mode.
 	 */
 	private final PoolWorker[] workers;
 
+	/** The executor running the work, or null in {@link Mode#QUEUE} mode. */
+	private final ExecutorService executor;
+
+	/** Limits how many tasks do CPU-heavy work at once. */
+	private final SimpleLock cpu;
+
+	/** The number of threads running work. */
+	private final int threads;
+
 	/** Queue of pending work requests. */
 	private final LinkedList<Runnable> queue;
 
@@ -27,7 +77,16 @@ public class WorkQueue {
 	private volatile boolean shutdown;
 
 	/** Pending work */
-	private int pending;
+	private final AtomicInteger pending;
+
+	/**
+	 * Limits how much work can wait in the queue or run at once, or null if there
+	 * is no limit.
+	 */
+	private final Semaphore slots;
+
+	/** The number of pieces of work each thread is running from this queue. */
+	private final ThreadLocal<int[]> running;
 
 	/** The default number of threads to use when not specified. */
 	public static final int DEFAULT = 5;
@@ -50,11 +109,59 @@ public class WorkQueue {
 	 * @param threads number of worker threads; should be greater than 1
 	 */
 	public WorkQueue(int threads) {
+		this(threads, Mode.QUEUE);
+	}
+
+	/**
+	 * Starts a work queue with the specified number of threads, running its work
+	 * in the given mode.
+	 *
+	 * @param threads number of worker threads; should be greater than 1
+	 * @param mode    how work is run
+	 */
+	public WorkQueue(int threads, Mode mode) {
+		this(threads, mode, 0);
+	}
+
+	/**
+	 * Starts a work queue with the specified number of threads, running its work
+	 * in the given mode, that holds at most the given amount of work at once. Once
+	 * that much work is waiting or running, adding more work waits until some of
+	 * it finishes, which keeps producers from running far ahead of the workers.
+	 * Work added by a task that would have to wait is run right away by that task
+	 * instead, since waiting could deadlock the queue.
+	 *
+	 * @param threads  number of worker threads; should be greater than 1
+	 * @param mode     how work is run
+	 * @param capacity most work that can be waiting or running at once, or 0 for
+	 *                 no limit
+	 */
+	public WorkQueue(int threads, Mode mode, int capacity) {
 		this.queue = new LinkedList<Runnable>();
-		this.workers = new PoolWorker[threads];
+		this.threads = threads;
 
 		shutdown = false;
-		pending = 0;
+		pending = new AtomicInteger();
+		slots = capacity > 0 ? new Semaphore(capacity) : null;
+		running = ThreadLocal.withInitial(() -> new int[1]);
+
+		if (mode == Mode.VIRTUAL) {
+			this.workers = new PoolWorker[0];
+			this.executor = virtualThreads();
+			this.cpu = new PermitLock(threads);
+			return;
+		}
+
+		this.cpu = new PermitLock(0);
+		if (mode == Mode.STEALING) {
+			/* Async mode runs each worker's own tasks in submission order */
+			this.workers = new PoolWorker[0];
+			this.executor = new ForkJoinPool(threads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+			return;
+		}
+
+		this.workers = new PoolWorker[threads];
+		this.executor = null;
 
 		// start the threads so they are waiting in the background
 		for (int i = 0; i < threads; i++) {
@@ -63,31 +170,100 @@ public class WorkQueue {
 		}
 	}
 
+	/**
+	 * Creates an executor that starts a virtual thread for each task. Virtual
+	 * threads are only available on newer Java runtimes, so they are looked up by
+	 * reflection, and a cached thread pool is used where they are missing.
+	 *
+	 * @return an executor with no limit on the number of running tasks
+	 */
+	private static ExecutorService virtualThreads() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			log.debug("Virtual threads are not available, using a cached thread pool instead.");
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	/**
+	 * Returns the lock that work should hold while it is busy with the CPU rather
+	 * than waiting on I/O. In {@link Mode#VIRTUAL} mode at most as many tasks as
+	 * the number of threads can hold it at once; in the other modes the number of
+	 * workers already sets that limit, and the lock never waits.
+	 *
+	 * @return the lock limiting CPU-heavy work
+	 */
+	public SimpleLock cpuLock() {
+		return cpu;
+	}
+
 	/**
 	 * Adds a work request to the queue. A thread will process this request when
-	 * available.
+	 * available. If the queue is full, waits until there is room for it.
 	 *
 	 * @param r work request (in the form of a {@link Runnable} object)
 	 */
 	public void execute(Runnable r) {
 		incrementPending();
+		if (slots != null && !slots.tryAcquire()) {
+			if (running.get()[0] > 0) {
+				/* A worker waiting for a slot could be waiting on itself, so it runs the work instead */
+				runTask(r, false);
+				return;
+			}
+			slots.acquireUninterruptibly();
+		}
+
+		if (executor != null) {
+			try {
+				executor.execute(() -> runTask(r, true));
+			} catch (RejectedExecutionException ex) {
+				skip(r);
+			}
+			return;
+		}
+
 		synchronized (queue) {
+			if (shutdown) {
+				skip(r);
+				return;
+			}
 			queue.addLast(r);
-			queue.notifyAll();
+			// only one task was added, so only one waiting worker needs to wake up
+			queue.notify();
 		}
 	}
 
+	/**
+	 * Starts a new group of work on this queue.
+	 *
+	 * @return an empty group of work
+	 */
+	public TaskGroup group() {
+		return new TaskGroup();
+	}
+
 	/**
 	 * Asks the queue to shutdown. Any unprocessed work will not be finished, but
-	 * threads in-progress will not be interrupted.
+	 * threads in-progress will not be interrupted. Groups waiting on unprocessed
+	 * work fail with a {@link CancellationException}.
 	 */
 	public void shutdown() {
 		// safe to do unsynchronized due to volatile keyword
 		shutdown = true;
 
 		synchronized (queue) {
+			for (Runnable r : queue) {
+				skip(r);
+			}
+			queue.clear();
 			queue.notifyAll();
 		}
+
+		if (executor != null) {
+			executor.shutdown();
+		}
 	}
 
 	/**
@@ -96,32 +272,88 @@ public class WorkQueue {
 	 * @throws InterruptedException
 	 */
 	public synchronized void join() throws InterruptedException {
-		while (this.pending > 0) {
+		while (this.pending.get() > 0) {
 			this.wait();
 			log.debug("Woke up with pending at {}.", pending);
 		}
 		log.debug("Work finished.");
 	}
 
+	/**
+	 * Runs a piece of work, unless the queue has been shut down, and counts it as
+	 * finished.
+	 *
+	 * @param r      work request to run
+	 * @param queued whether the work took a slot in the queue
+	 */
+	private void runTask(Runnable r, boolean queued) {
+		int[] depth = running.get();
+		depth[0]++;
+		try {
+			if (!shutdown) {
+				r.run();
+			} else {
+				cancel(r);
+			}
+		} catch (RuntimeException ex) {
+			// catch runtime exceptions to avoid leaking threads
+			log.debug("Warning: Work queue encountered an exception while running.", ex);
+		} finally {
+			depth[0]--;
+			if (queued && slots != null) {
+				slots.release();
+			}
+			decrementPending();
+		}
+	}
+
+	/**
+	 * Counts a piece of work that took a slot in the queue as finished without
+	 * running it.
+	 *
+	 * @param r work request that will not be run
+	 */
+	private void skip(Runnable r) {
+		cancel(r);
+		if (slots != null) {
+			slots.release();
+		}
+		decrementPending();
+	}
+
+	/**
+	 * Lets the group of a piece of work know that it will never be run.
+	 *
+	 * @param r work request that was skipped
+	 */
+	private static void cancel(Runnable r) {
+		if (r instanceof GroupTask) {
+			((GroupTask) r).cancel();
+		}
+	}
+
 	/**
 	 * Increment pending work
 	 */
-	private synchronized void incrementPending() {
-		this.pending++;
+	private void incrementPending() {
+		this.pending.incrementAndGet();
 	}
 
 	/**
-	 * Decrement pending work
+	 * Decrement pending work. Only takes the monitor when the last piece of work
+	 * finishes, so workers do not contend on it after every task.
 	 */
-	private synchronized void decrementPending() {
-		assert this.pending > 0;
-		this.pending--;
+	private void decrementPending() {
+		int remaining = this.pending.decrementAndGet();
+		assert remaining >= 0;
 		/**
 		 * If we have no more work, notify to wake up from join. Our threads will be
 		 * calling this method after completing a task
 		 */
-		if (pending == 0) {
-			this.notifyAll();
+		if (remaining == 0) {
+			synchronized (this) {
+				this.notifyAll();
+			}
 		}
 	}
 
@@ -131,7 +363,165 @@ public class WorkQueue {
 	 * @return number of worker threads
 	 */
 	public int size() {
-		return workers.length;
+		return threads;
+	}
+
+	/**
+	 * A group of work submitted to this queue that can be waited on by itself. The
+	 * group keeps its own count of pending work, so {@link #join()} returns as soon
+	 * as this group is done, no matter what else the queue is running. If any of
+	 * the work throws, the first exception is handed to the thread that joins.
+	 */
+	public class TaskGroup {
+
+		/** Pending work in this group */
+		private final AtomicInteger pending;
+
+		/** The first exception thrown by work in this group, if any */
+		private final AtomicReference<Throwable> failure;
+
+		/**
+		 * Initializes an empty group.
+		 */
+		private TaskGroup() {
+			this.pending = new AtomicInteger();
+			this.failure = new AtomicReference<Throwable>();
+		}
+
+		/**
+		 * Adds a work request to the queue as part of this group.
+		 *
+		 * @param r work request (in the form of a {@link Runnable} object)
+		 */
+		public void execute(Runnable r) {
+			pending.incrementAndGet();
+			WorkQueue.this.execute(new GroupTask(this, r));
+		}
+
+		/**
+		 * Waits until all work in this group is finished. Work added to the group
+		 * while waiting is waited for as well.
+		 *
+		 * @throws InterruptedException if interrupted while waiting
+		 * @throws ExecutionException   if any work in this group threw an exception,
+		 *                              which is given as the cause
+		 */
+		public synchronized void join() throws InterruptedException, ExecutionException {
+			while (pending.get() > 0) {
+				this.wait();
+			}
+
+			Throwable cause = failure.get();
+			if (cause != null) {
+				throw new ExecutionException(cause);
+			}
+		}
+
+		/**
+		 * Records that a piece of work failed. Later failures are attached to the
+		 * first one as suppressed exceptions.
+		 *
+		 * @param cause the exception thrown by the work
+		 */
+		private void fail(Throwable cause) {
+			if (!failure.compareAndSet(null, cause) && failure.get() != cause) {
+				failure.get().addSuppressed(cause);
+			}
+		}
+
+		/**
+		 * Records that a piece of work finished, waking up any joining threads if it
+		 * was the last one.
+		 */
+		private void finish() {
+			if (pending.decrementAndGet() == 0) {
+				synchronized (this) {
+					this.notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * A piece of work that reports to its group when it finishes.
+	 */
+	private static class GroupTask implements Runnable {
+
+		/** The group this work belongs to */
+		private final TaskGroup group;
+
+		/** The work to run */
+		private final Runnable work;
+
+		/**
+		 * Constructor
+		 *
+		 * @param group the group this work belongs to
+		 * @param work  the work to run
+		 */
+		public GroupTask(TaskGroup group, Runnable work) {
+			this.group = group;
+			this.work = work;
+		}
+
+		/**
+		 * Runs the work, recording any exception it throws in the group instead of
+		 * passing it on to the queue.
+		 */
+		@Override
+		public void run() {
+			try {
+				work.run();
+			} catch (RuntimeException e) {
+				group.fail(e);
+			} catch (Error e) {
+				group.fail(e);
+				throw e;
+			} finally {
+				group.finish();
+			}
+		}
+
+		/**
+		 * Counts this work as failed without running it.
+		 */
+		public void cancel() {
+			group.fail(new CancellationException("The work queue was shut down."));
+			group.finish();
+		}
+	}
+
+	/**
+	 * A lock that can be held by a limited number of threads at once.
+	 */
+	private static class PermitLock implements SimpleLock {
+
+		/** The permits, or null if the number of holders is not limited. */
+		private final Semaphore permits;
+
+		/**
+		 * Constructor
+		 *
+		 * @param permits the number of threads that may hold the lock at once, or 0
+		 *                for no limit
+		 */
+		public PermitLock(int permits) {
+			this.permits = permits > 0 ? new Semaphore(permits) : null;
+		}
+
+		@Override
+		public void lock() {
+			if (permits != null) {
+				permits.acquireUninterruptibly();
+			}
+		}
+
+		@Override
+		public void unlock() {
+			if (permits != null) {
+				permits.release();
+			}
+		}
 	}
 
 	/**
@@ -167,13 +557,7 @@ public class WorkQueue {
 					}
 				}
 
-				try {
-					r.run();
-					decrementPending();
-				} catch (RuntimeException ex) {
-					// catch runtime exceptions to avoid leaking threads
-					log.debug("Warning: Work queue encountered an exception while running.", ex);
-				}
+				runTask(r, true);
 			}
 		}
 	}